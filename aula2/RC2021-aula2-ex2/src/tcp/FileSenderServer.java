@@ -22,18 +22,13 @@ public class FileSenderServer {
 		
 	}
 
+	/**
+	 * Usage: [INLINE | PLATFORM | VIRTUAL]
+	 */
 	public static void main(String[] args) {
 
 		try (ServerSocket ss = new ServerSocket(PORT)) {
-			for (;;) {
-				try (Socket cs = ss.accept()) {
-
-					receiveFile(cs);
-
-				} catch (IOException x) {
-					x.printStackTrace();
-				}
-			}
+			ServerThreads.serve(ss, ServerThreads.mode(args, 0), FileSenderServer::receiveFile);
 		} catch (IOException x) {
 			x.printStackTrace();
 		}
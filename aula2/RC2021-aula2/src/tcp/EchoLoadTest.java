@@ -0,0 +1,110 @@
+package tcp;
+
+import java.io.*;
+import java.net.*;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Load test for the EchoServer threading modes.
+ *
+ * For each mode, starts an EchoServer in this process and runs a number of
+ * concurrent clients against it. Each client opens connections in sequence;
+ * on each connection it waits thinkMs before sending its message, like a slow
+ * client would, and then reads the echo back.
+ *
+ * Reports the accepted connections per second and the latency of each
+ * connection (connect to echo received), for each mode. VIRTUAL only runs by
+ * default if the JVM has virtual threads.
+ *
+ * Usage: [clients] [connectionsPerClient] [thinkMs] [modes...]
+ */
+public class EchoLoadTest {
+
+	private static final byte[] MESSAGE = "Hello, echo server!".getBytes();
+
+	public static void main(String[] args) throws Exception {
+		int clients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+		int connections = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+		int thinkMs = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+
+		// modes are labelled as they run, so VIRTUAL without virtual threads runs as PLATFORM
+		List<ServerThreads.Mode> modes = new ArrayList<>();
+		for (int i = 3; i < args.length; i++)
+			modes.add(ServerThreads.effective(ServerThreads.Mode.valueOf(args[i].toUpperCase())));
+		if (modes.isEmpty()) {
+			modes.add(ServerThreads.Mode.PLATFORM);
+			if (ServerThreads.virtualThreadsAvailable())
+				modes.add(ServerThreads.Mode.VIRTUAL);
+		}
+
+		System.out.printf("%d clients x %d connections, %d ms think time\n", clients, connections, thinkMs);
+		for (var mode : modes)
+			run(mode, clients, connections, thinkMs);
+	}
+
+	static void run(ServerThreads.Mode mode, int clients, int connections, int thinkMs) throws Exception {
+		ServerSocket ss = new ServerSocket(0, clients);
+		Thread server = new Thread(() -> {
+			try {
+				ServerThreads.serve(ss, mode, EchoServer::echo);
+			} catch (IOException x) {
+				// closed at the end of the run
+			}
+		});
+		server.setDaemon(true);
+		server.start();
+
+		ExecutorService pool = Executors.newFixedThreadPool(clients);
+		List<Callable<long[]>> tasks = new ArrayList<>();
+		for (int i = 0; i < clients; i++)
+			tasks.add(() -> client(ss.getLocalPort(), connections, thinkMs));
+
+		long t0 = System.nanoTime();
+		List<Future<long[]>> results = pool.invokeAll(tasks);
+		double secs = (System.nanoTime() - t0) / 1e9;
+		pool.shutdown();
+		ss.close();
+
+		long[] latencies = new long[clients * connections];
+		int n = 0;
+		for (var f : results)
+			for (long l : f.get())
+				latencies[n++] = l;
+		Arrays.sort(latencies);
+
+		System.out.printf("%-8s %8.0f conn/s   p50: %6.2f ms   p99: %6.2f ms   max: %6.2f ms\n", mode, n / secs,
+				percentile(latencies, 0.50), percentile(latencies, 0.99), latencies[n - 1] / 1e6);
+	}
+
+	static long[] client(int port, int connections, int thinkMs) throws Exception {
+		long[] latencies = new long[connections];
+		byte[] buf = new byte[MESSAGE.length];
+		for (int i = 0; i < connections; i++) {
+			long t0 = System.nanoTime();
+			try (Socket cs = new Socket("localhost", port)) {
+				Thread.sleep(thinkMs);
+				cs.getOutputStream().write(MESSAGE);
+				cs.shutdownOutput();
+				InputStream is = cs.getInputStream();
+				int n, total = 0;
+				while ((n = is.read(buf)) > 0)
+					total += n;
+				if (total != MESSAGE.length)
+					throw new IOException("Bad echo: " + total + " bytes");
+			}
+			latencies[i] = System.nanoTime() - t0 - thinkMs * 1_000_000L;
+		}
+		return latencies;
+	}
+
+	static double percentile(long[] sorted, double p) {
+		int i = (int) Math.ceil(p * sorted.length) - 1;
+		return sorted[Math.max(0, i)] / 1e6;
+	}
+}
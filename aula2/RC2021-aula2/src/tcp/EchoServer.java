@@ -3,6 +3,9 @@ package tcp;
 import java.io.*;
 import java.net.*;
 
+/**
+ * Usage: [INLINE | PLATFORM | VIRTUAL]
+ */
 public class EchoServer {
 
 	private static final int BUF_SIZE = 1024;
@@ -12,25 +15,21 @@ public class EchoServer {
 	public static void main(String[] args) {
 
 		try (ServerSocket ss = new ServerSocket(PORT)) {
-			for (;;) {
-				try( Socket cs = ss.accept()){
-					
-					InputStream is = cs.getInputStream();
-					OutputStream os = cs.getOutputStream();
-					
-					byte[] buf = new byte[BUF_SIZE];
-					
-					int n;
-					while( (n = is.read( buf )) > 0 )
-						os.write( buf, 0, n);
-					
-				} catch( IOException x) {
-					x.printStackTrace();
-				}
-			}
+			ServerThreads.serve(ss, ServerThreads.mode(args, 0), EchoServer::echo);
 		} catch (IOException x) {
 			x.printStackTrace();
 		}
 
 	}
+
+	static void echo(Socket cs) throws IOException {
+		InputStream is = cs.getInputStream();
+		OutputStream os = cs.getOutputStream();
+		
+		byte[] buf = new byte[BUF_SIZE];
+		
+		int n;
+		while( (n = is.read( buf )) > 0 )
+			os.write( buf, 0, n);
+	}
 }
@@ -0,0 +1,108 @@
+package tcp;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Accept loop shared by the servers, with a selectable threading mode.
+ *
+ * INLINE handles each connection in the accepting thread, one at a time.
+ * PLATFORM and VIRTUAL hand each connection to a new platform or virtual
+ * thread, respectively. Without virtual threads in the JVM, VIRTUAL runs as
+ * PLATFORM.
+ *
+ * The lab projects build on their own, so aula2/RC2021-aula2,
+ * aula2/RC2021-aula2-ex2 and aula3/RC2021-aula3 each keep a copy of this
+ * class, differing only in the package. Changes go to all of them.
+ */
+class ServerThreads {
+
+	static enum Mode {
+		INLINE, PLATFORM, VIRTUAL
+	};
+
+	static interface Handler {
+		void handle(Socket cs) throws IOException;
+	}
+
+	/**
+	 * @return the mode given in args[index], or INLINE if there is none
+	 */
+	static Mode mode(String[] args, int index) {
+		return args.length > index ? effective(Mode.valueOf(args[index].toUpperCase())) : Mode.INLINE;
+	}
+
+	/**
+	 * @return the given mode, or PLATFORM for VIRTUAL if virtual threads are not
+	 *         available in this JVM
+	 */
+	static Mode effective(Mode mode) {
+		if (mode == Mode.VIRTUAL && !virtualThreadsAvailable()) {
+			System.err.println("Virtual threads not available in this JVM. Using PLATFORM mode...");
+			return Mode.PLATFORM;
+		}
+		return mode;
+	}
+
+	/**
+	 * Accepts connections forever, closing each one after it is handled.
+	 */
+	static void serve(ServerSocket ss, Mode mode, Handler handler) throws IOException {
+		ExecutorService executor = executor(mode);
+		for (;;) {
+			Socket cs = ss.accept();
+			if (executor == null)
+				handle(cs, handler);
+			else
+				executor.execute(() -> handle(cs, handler));
+		}
+	}
+
+	private static void handle(Socket socket, Handler handler) {
+		try (Socket cs = socket) {
+			handler.handle(cs);
+		} catch (IOException x) {
+			x.printStackTrace();
+		}
+	}
+
+	/**
+	 * @return the executor for the given mode, or null for INLINE
+	 */
+	static ExecutorService executor(Mode mode) {
+		switch (mode) {
+		case PLATFORM:
+			return Executors.newCachedThreadPool();
+		case VIRTUAL:
+			return newVirtualThreadPerTaskExecutor();
+		default:
+			return null;
+		}
+	}
+
+	static boolean virtualThreadsAvailable() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException x) {
+			return false;
+		}
+	}
+
+	/**
+	 * Virtual threads only exist in Java 21 onwards, and this project compiles
+	 * at Java 13 compliance, so they are looked up reflectively. Falls back to
+	 * platform threads in older JVMs.
+	 */
+	static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException x) {
+			System.err.println("Virtual threads not available in this JVM. Using platform threads...");
+			return Executors.newCachedThreadPool();
+		}
+	}
+}
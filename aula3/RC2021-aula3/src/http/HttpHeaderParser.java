@@ -0,0 +1,325 @@
+package http;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Incremental parser for the start line and headers of HTTP requests and
+ * replies.
+ *
+ * Works on the bytes of a ByteBuffer, between its position and its limit. Each
+ * call to next() consumes one complete line and reports what it found. Tokens
+ * are exposed as offsets into the buffer, so parsing does not copy or allocate
+ * anything. The offsets stay valid while the buffer contents are not moved.
+ *
+ * When the buffer holds an incomplete line, next() returns NEED_MORE and
+ * leaves the buffer untouched, so that the caller can append more bytes and
+ * try again.
+ *
+ * Example, for "HTTP/1.1 206 Partial Content": token(0) is "HTTP/1.1",
+ * token(1) is "206" and token(2) is "Partial Content". For "Content-Length:
+ * 1234", name is "Content-Length" and value is "1234".
+ *
+ * tp1/RC2021-MpegDash-tp1 and aula3/RC2021-aula3 build on their own, so each
+ * keeps a copy of this class. Changes go to both.
+ *
+ * @author smduarte
+ *
+ */
+public class HttpHeaderParser {
+
+	public static enum Event {
+		NEED_MORE, START_LINE, HEADER, END, MALFORMED
+	};
+
+	private static final int MAX_TOKENS = 3;
+
+	private boolean startLineDone;
+	private int scanned;
+
+	private int lineStart, lineEnd;
+	private final int[] tokenStart = new int[MAX_TOKENS], tokenEnd = new int[MAX_TOKENS];
+	private int nameStart, nameEnd, valueStart, valueEnd;
+	private long rangeFirst, rangeLast, rangeTotal;
+
+	/**
+	 * Prepares the parser for the next message
+	 */
+	public HttpHeaderParser reset() {
+		startLineDone = false;
+		scanned = 0;
+		return this;
+	}
+
+	/**
+	 * Parses the next line in the buffer, advancing its position past that line.
+	 *
+	 * @return START_LINE, for the first line of a message; HEADER, for a header
+	 *         line; END, for the empty line that ends the headers; NEED_MORE, if
+	 *         the buffer does not hold a complete line; MALFORMED, if the line is
+	 *         not valid.
+	 */
+	public Event next(ByteBuffer buf) {
+		for (;;) {
+			int pos = buf.position(), limit = buf.limit();
+			int i = pos + scanned;
+			while (i < limit && buf.get(i) != '\n')
+				i++;
+
+			if (i == limit) {
+				scanned = i - pos;
+				return Event.NEED_MORE;
+			}
+			scanned = 0;
+			buf.position(i + 1);
+
+			lineStart = pos;
+			lineEnd = i > pos && buf.get(i - 1) == '\r' ? i - 1 : i;
+
+			if (startLineDone)
+				return lineEnd == lineStart ? Event.END : parseHeader(buf);
+
+			// empty lines before the start line are ignored
+			if (lineEnd > lineStart) {
+				startLineDone = true;
+				return parseStartLine(buf);
+			}
+		}
+	}
+
+	/**
+	 * Parses the next line, reading more bytes from the stream into the buffer
+	 * as needed. Bytes are appended after the buffer limit, up to its capacity,
+	 * without moving the contents already in the buffer.
+	 *
+	 * The buffer must be backed by an array.
+	 *
+	 * @return as next(buf), except NEED_MORE is only returned at the end of the
+	 *         stream, and MALFORMED is also returned if the buffer fills up
+	 *         without a complete line.
+	 */
+	public Event next(ByteBuffer buf, InputStream in) throws IOException {
+		Event e;
+		while ((e = next(buf)) == Event.NEED_MORE) {
+			int limit = buf.limit(), free = buf.capacity() - limit;
+			if (free == 0)
+				return Event.MALFORMED;
+			int n = in.read(buf.array(), buf.arrayOffset() + limit, free);
+			if (n < 0)
+				return Event.NEED_MORE;
+			buf.limit(limit + n);
+		}
+		return e;
+	}
+
+	private Event parseStartLine(ByteBuffer buf) {
+		int i = lineStart;
+		for (int t = 0; t < MAX_TOKENS; t++) {
+			tokenStart[t] = i;
+			// the last token takes the rest of the line (eg., the reason phrase)
+			if (t < MAX_TOKENS - 1)
+				while (i < lineEnd && buf.get(i) != ' ')
+					i++;
+			else
+				i = lineEnd;
+			tokenEnd[t] = i;
+			if (i < lineEnd)
+				i++;
+		}
+		return tokenEnd[0] > tokenStart[0] && tokenEnd[1] > tokenStart[1] ? Event.START_LINE : Event.MALFORMED;
+	}
+
+	private Event parseHeader(ByteBuffer buf) {
+		int i = lineStart;
+		while (i < lineEnd && buf.get(i) != ':')
+			i++;
+		if (i == lineEnd || i == lineStart)
+			return Event.MALFORMED;
+
+		nameStart = lineStart;
+		nameEnd = i++;
+		while (i < lineEnd && isSpace(buf.get(i)))
+			i++;
+		valueStart = i;
+		i = lineEnd;
+		while (i > valueStart && isSpace(buf.get(i - 1)))
+			i--;
+		valueEnd = i;
+		return Event.HEADER;
+	}
+
+	public int lineStart() {
+		return lineStart;
+	}
+
+	public int lineEnd() {
+		return lineEnd;
+	}
+
+	public int tokenStart(int token) {
+		return tokenStart[token];
+	}
+
+	public int tokenEnd(int token) {
+		return tokenEnd[token];
+	}
+
+	public int nameStart() {
+		return nameStart;
+	}
+
+	public int nameEnd() {
+		return nameEnd;
+	}
+
+	public int valueStart() {
+		return valueStart;
+	}
+
+	public int valueEnd() {
+		return valueEnd;
+	}
+
+	/**
+	 * @return true if the name of the last header equals the given name, ignoring case
+	 */
+	public boolean nameIs(ByteBuffer buf, String name) {
+		return equalsIgnoreCase(buf, nameStart, nameEnd, name);
+	}
+
+	/**
+	 * @return true if the value of the last header equals the given value, ignoring case
+	 */
+	public boolean valueIs(ByteBuffer buf, String value) {
+		return equalsIgnoreCase(buf, valueStart, valueEnd, value);
+	}
+
+	/**
+	 * @return true if the given start line token equals the given string
+	 */
+	public boolean tokenIs(ByteBuffer buf, int token, String s) {
+		int start = tokenStart[token], end = tokenEnd[token];
+		if (end - start != s.length())
+			return false;
+		for (int i = 0; i < s.length(); i++)
+			if (buf.get(start + i) != s.charAt(i))
+				return false;
+		return true;
+	}
+
+	/**
+	 * @return the value of the last header as a number, or -1 if it is not a number
+	 */
+	public long valueAsLong(ByteBuffer buf) {
+		return parseLong(buf, valueStart, valueEnd);
+	}
+
+	/**
+	 * @return the status code of a reply start line, or -1 if it is not a number
+	 */
+	public int statusCode(ByteBuffer buf) {
+		return (int) parseLong(buf, tokenStart[1], tokenEnd[1]);
+	}
+
+	/**
+	 * Parses the value of the last header as a byte range, either as sent by the
+	 * client, "bytes=first-[last]", or by the server, "bytes first-last/total".
+	 * Missing values are set to -1.
+	 *
+	 * @return true if the value is a valid range
+	 */
+	public boolean parseRange(ByteBuffer buf) {
+		int i = valueStart, end = valueEnd;
+		if (end - i < 6 || !equalsIgnoreCase(buf, i, i + 5, "bytes") || (buf.get(i + 5) != '=' && buf.get(i + 5) != ' '))
+			return false;
+		i += 6;
+
+		int dash = indexOf(buf, i, end, '-'), slash = indexOf(buf, i, end, '/');
+		if (dash < 0 || (slash >= 0 && slash < dash))
+			return false;
+		int lastEnd = slash < 0 ? end : slash;
+		rangeFirst = parseLong(buf, i, dash);
+		rangeLast = dash + 1 == lastEnd ? -1 : parseLong(buf, dash + 1, lastEnd);
+		rangeTotal = slash < 0 ? -1 : parseLong(buf, slash + 1, end);
+		return rangeFirst >= 0 && (rangeLast >= 0 || dash + 1 == lastEnd);
+	}
+
+	public long rangeFirst() {
+		return rangeFirst;
+	}
+
+	public long rangeLast() {
+		return rangeLast;
+	}
+
+	public long rangeTotal() {
+		return rangeTotal;
+	}
+
+	/**
+	 * @return the given start line token, as a new String
+	 */
+	public String token(ByteBuffer buf, int token) {
+		return string(buf, tokenStart[token], tokenEnd[token]);
+	}
+
+	/**
+	 * @return the value of the last header, as a new String
+	 */
+	public String value(ByteBuffer buf) {
+		return string(buf, valueStart, valueEnd);
+	}
+
+	/**
+	 * @return the last line, as a new String
+	 */
+	public String line(ByteBuffer buf) {
+		return string(buf, lineStart, lineEnd);
+	}
+
+	static String string(ByteBuffer buf, int start, int end) {
+		byte[] bytes = new byte[end - start];
+		buf.get(start, bytes);
+		return new String(bytes);
+	}
+
+	static long parseLong(ByteBuffer buf, int start, int end) {
+		if (start >= end || end - start > 18)
+			return -1;
+		long res = 0;
+		for (int i = start; i < end; i++) {
+			int d = buf.get(i) - '0';
+			if (d < 0 || d > 9)
+				return -1;
+			res = res * 10 + d;
+		}
+		return res;
+	}
+
+	static boolean equalsIgnoreCase(ByteBuffer buf, int start, int end, String s) {
+		if (end - start != s.length())
+			return false;
+		for (int i = 0; i < s.length(); i++) {
+			int a = buf.get(start + i), b = s.charAt(i);
+			if (a != b && (a | 0x20) != (b | 0x20) || (a != b && !isLetter(b)))
+				return false;
+		}
+		return true;
+	}
+
+	private static int indexOf(ByteBuffer buf, int start, int end, char c) {
+		for (int i = start; i < end; i++)
+			if (buf.get(i) == c)
+				return i;
+		return -1;
+	}
+
+	private static boolean isLetter(int c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static boolean isSpace(byte c) {
+		return c == ' ' || c == '\t';
+	}
+}
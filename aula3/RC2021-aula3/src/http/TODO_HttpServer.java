@@ -1,14 +1,17 @@
 
 package http;
 
+import java.io.BufferedInputStream;
 import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.ServerSocket;
-import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.util.Date;
 
+import http.HttpHeaderParser.Event;
+
 /**
  * Super simple incomplete HTTP Server
  */
@@ -19,6 +22,8 @@ public class TODO_HttpServer {
 	static final String GET = "GET";
 	static final String POST = "POST";
 
+	static final int MAX_HEAD_SIZE = 8 * 1024;
+
 	/**
 	 * Returns an input stream with an error message "Not Implemented"
 	 */
@@ -52,29 +57,43 @@ public class TODO_HttpServer {
 	/**
 	 * processHTTPrequest - handle one HTTP request
 	 * 
+	 * The request line and headers are parsed in place, in a buffer. Bytes read
+	 * past the end of the headers are pushed back, so that the body can be read
+	 * from the stream.
+	 * 
 	 * @param in  - stream from client
 	 * @param out - stream to client
 	 */
 	private static void processHTTPrequest(InputStream in, OutputStream out) throws IOException {
+		in = new BufferedInputStream(in, MAX_HEAD_SIZE);
+		in.mark(MAX_HEAD_SIZE);
 
-		String request = "TODO";
+		var buf = ByteBuffer.allocate(MAX_HEAD_SIZE).limit(0);
+		var parser = new HttpHeaderParser();
+		if (parser.next(buf, in) != Event.START_LINE)
+			return;
 
-		// TODO read request
+		System.out.println("received: " + parser.line(buf));
 
-		System.out.println("received: " + request);
+		String method = parser.token(buf, 0).toUpperCase();
+		String path = parser.token(buf, 1);
 
-		String[] requestParts = Http.parseHttpRequest(request);
+		// TODO use the request headers
+		Event e;
+		while ((e = parser.next(buf, in)) == Event.HEADER)
+			;
+		if (e != Event.END)
+			return;
 
-		// TODO consume request headers
-
-		String method = requestParts[0].toUpperCase();
+		in.reset();
+		in.skipNBytes(buf.position());
 
 		switch (method) {
 		case GET:
-			getFile(requestParts[1], out);
+			getFile(path, out);
 			break;
 		case POST:
-			postFile(requestParts[1], in, out);
+			postFile(path, in, out);
 			break;
 		default:
 			Http.dumpStream(notImplementedPageStream(), out);
@@ -83,21 +102,20 @@ public class TODO_HttpServer {
 
 	/**
 	 * MAIN - accept and handle client connections
+	 * 
+	 * Usage: [INLINE | PLATFORM | VIRTUAL]
 	 */
 
 	public static void main(String[] args) {
 
 		try (ServerSocket ss = new ServerSocket(PORT)) {
-			for (;;) {
-				System.out.println("Server ready at " + PORT);
-				try (Socket clientS = ss.accept()) {
-					InputStream in = clientS.getInputStream();
-					OutputStream out = clientS.getOutputStream();
-					processHTTPrequest(in, out);
-				} catch (IOException x) {
-					x.printStackTrace();
-				}
-			}
+			var mode = ServerThreads.mode(args, 0);
+			System.out.println("Server ready at " + PORT + " (" + mode + ")");
+			ServerThreads.serve(ss, mode, clientS -> {
+				InputStream in = clientS.getInputStream();
+				OutputStream out = clientS.getOutputStream();
+				processHTTPrequest(in, out);
+			});
 		} catch (IOException x) {
 			x.printStackTrace();
 		}
@@ -8,24 +8,84 @@ import java.util.Arrays;
 public class HttpClient1_0 implements HttpClient {
 
 	private static final String GET_FORMAT_STR = "GET %s HTTP/1.0\r\n\r\n";
+	private static final String GET_RANGE_FORMAT_STR = "GET %s HTTP/1.0\r\nRange: bytes=%d-%s\r\n\r\n";
 	private static final String CONTENT_LENGTH = "Content-Length";
 	private static final Object HTTP_200_OK = "200";
+	private static final Object HTTP_206_PARTIAL = "206";
 
 	@Override
 	public byte[] doGet(String url) {
+		return doGet(url, -1, -1);
+	}
+
+	@Override
+	public byte[] doRangeGet(String url, long start) {
+		return doGet(url, start, -1);
+	}
+
+	@Override
+	public byte[] doRangeGet(String url, long start, long end) {
+		return doGet(url, start, end);
+	}
+
+	/**
+	 * Learns the size of a resource, by asking for its first byte and reading the
+	 * total length from the Content-Range header of the reply.
+	 *
+	 * If the server ignores the range, uses the Content-Length header instead.
+	 *
+	 * @return the size of the resource, or -1 if it could not be determined
+	 */
+	public long getContentLength(String url) {
 		try {
 			URL u = new URL(url);
 			int port = u.getPort();
 			try (Socket cs = new Socket(u.getHost(), port > 0 ? port : HTTP_DEFAULT_PORT)) {
 
-				cs.getOutputStream().write(String.format(GET_FORMAT_STR, u.getPath()).getBytes());
+				cs.getOutputStream().write(String.format(GET_RANGE_FORMAT_STR, u.getPath(), 0, 0).getBytes());
 
 				InputStream in = cs.getInputStream();
 
 				String statusLine = Http.readLine(in);
 				String[] statusParts = Http.parseHttpReply(statusLine);
 
-				if (statusParts[1].equals(HTTP_200_OK)) {
+				String headerLine;
+				long contentLength = -1;
+				while ((headerLine = Http.readLine(in)).length() > 0) {
+					if (statusParts[1].equals(HTTP_206_PARTIAL)) {
+						long[] range = Http.parseRangeValuesSentByServer(headerLine);
+						if (range != null)
+							return range[2];
+					} else if (statusParts[1].equals(HTTP_200_OK)) {
+						String[] headerParts = Http.parseHttpHeader(headerLine);
+						if (headerParts[0].equalsIgnoreCase(CONTENT_LENGTH))
+							contentLength = Long.valueOf(headerParts[1]);
+					}
+				}
+				return contentLength;
+			}
+		} catch (Exception x) {
+			x.printStackTrace();
+		}
+		return -1;
+	}
+
+	private byte[] doGet(String url, long start, long end) {
+		try {
+			URL u = new URL(url);
+			int port = u.getPort();
+			try (Socket cs = new Socket(u.getHost(), port > 0 ? port : HTTP_DEFAULT_PORT)) {
+
+				String request = start < 0 ? String.format(GET_FORMAT_STR, u.getPath())
+						: String.format(GET_RANGE_FORMAT_STR, u.getPath(), start, end < 0 ? "" : end);
+				cs.getOutputStream().write(request.getBytes());
+
+				InputStream in = cs.getInputStream();
+
+				String statusLine = Http.readLine(in);
+				String[] statusParts = Http.parseHttpReply(statusLine);
+
+				if (statusParts[1].equals(start < 0 ? HTTP_200_OK : HTTP_206_PARTIAL)) {
 					String headerLine;
 					int contentLength = -1;
 					while ((headerLine = Http.readLine(in)).length() > 0) {
@@ -45,16 +105,4 @@ public class HttpClient1_0 implements HttpClient {
 		}
 		return null;
 	}
-
-	@Override
-	public byte[] doRangeGet(String url, long start) {
-		// TODO
-		return null;
-	}
-
-	@Override
-	public byte[] doRangeGet(String url, long start, long end) {
-		// TODO
-		return null;
-	}
 }
@@ -1,26 +1,190 @@
 package http;
 
 import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
 
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Downloads a resource to a file.
+ *
+ * Usage: [url] [connections]
+ *
+ * With more than one connection, the resource is split into as many chunks,
+ * which are fetched in parallel, with range requests, and written directly to
+ * their offset in the file. Progress is recorded in a companion file, so that an
+ * interrupted download resumes where it stopped.
+ */
 public class HttpDownloader {
 
 	private static final String DEFAULT_URL = "http://localhost:8080/earth.jpg";
 	private static final String RESULT_FILE = "result.out.jpg";
+	private static final String PROGRESS_FILE_SUFFIX = ".progress";
+
+	private static final int BLOCK_SIZE = 1 << 20;
+	private static final int MAX_RETRIES = 3;
+	private static final long RETRY_DELAY_MS = 250;
+
+	// progress file: size, connections, then the bytes done by each connection
+	private static final int PROGRESS_HEADER_SIZE = 2 * Long.BYTES;
 
 	public static void main(String[] args) throws Exception {
 
-		String url = args.length == 1 ? args[0] : DEFAULT_URL;
+		String url = args.length >= 1 ? args[0] : DEFAULT_URL;
+		int connections = args.length >= 2 ? Integer.valueOf(args[1]) : 1;
+
+		if (connections > 1) {
+			parallelDownload(url, connections);
+			return;
+		}
 
-		
 		try(FileOutputStream fos = new FileOutputStream(RESULT_FILE)){
 			HttpClient c = new HttpClient1_0();
 			byte[] data = c.doGet(url);
 			System.out.printf("Got %s bytes\n", data.length);
-			
+
 			fos.write( data );
 		} catch( Exception x ) {
 			x.printStackTrace();
 		}
 	}
 
+	static void parallelDownload(String url, int connections) throws Exception {
+		long size = new HttpClient1_0().getContentLength(url);
+		if (size < 0) {
+			System.err.println("Could not determine the size of: " + url);
+			return;
+		}
+
+		Path result = Path.of(RESULT_FILE), progressFile = Path.of(RESULT_FILE + PROGRESS_FILE_SUFFIX);
+		boolean complete = true;
+		try (var file = FileChannel.open(result, CREATE, WRITE);
+				var progress = FileChannel.open(progressFile, CREATE, READ, WRITE)) {
+
+			long[] done = readProgress(progress, size, connections);
+			long chunkSize = (size + connections - 1) / connections;
+
+			var workers = new ArrayList<ChunkDownloader>();
+			for (int i = 0; i < connections; i++) {
+				long start = Math.min(size, i * chunkSize), end = Math.min(size, start + chunkSize);
+				workers.add(new ChunkDownloader(i, url, start, end, done[i], file, progress));
+			}
+
+			long t0 = System.nanoTime();
+			var pool = Executors.newFixedThreadPool(connections);
+			try {
+				for (var f : pool.invokeAll(workers))
+					try {
+						complete &= f.get();
+					} catch (ExecutionException x) {
+						// the progress of a failed chunk is kept, to resume from
+						x.getCause().printStackTrace();
+						complete = false;
+					}
+			} finally {
+				pool.shutdown();
+			}
+
+			// a resumed download only counts the bytes fetched in this run
+			long fetched = 0;
+			for (var w : workers)
+				fetched += w.fetched;
+			double elapsed = (System.nanoTime() - t0) / 1e9;
+			System.out.printf("Got %s bytes with %d connections, %.1f KB/s\n", fetched, connections, fetched / 1024.0 / elapsed);
+
+			if (complete)
+				file.truncate(size);
+		}
+		if (complete)
+			Files.delete(progressFile);
+		else
+			System.err.println("Download incomplete. Run again to resume...");
+	}
+
+	/**
+	 * Reads how many bytes of each chunk were already downloaded. Starts over if
+	 * the progress file does not match the current resource size and number of
+	 * connections.
+	 */
+	static long[] readProgress(FileChannel progress, long size, int connections) throws IOException {
+		long[] done = new long[connections];
+		var buf = ByteBuffer.allocate(PROGRESS_HEADER_SIZE + connections * Long.BYTES);
+		progress.read(buf, 0);
+		buf.flip();
+		if (buf.remaining() == buf.capacity() && buf.getLong() == size && buf.getLong() == connections) {
+			buf.asLongBuffer().get(done);
+			System.out.printf("Resuming download: %s\n", Arrays.toString(done));
+		} else {
+			buf.clear();
+			buf.putLong(size).putLong(connections).put(new byte[connections * Long.BYTES]).flip();
+			progress.truncate(0);
+			progress.write(buf, 0);
+		}
+		return done;
+	}
+
+	/**
+	 * Fetches one chunk of the resource, in blocks, over its own connections.
+	 */
+	static class ChunkDownloader implements Callable<Boolean> {
+		final int id;
+		final String url;
+		final long start, end;
+		final FileChannel file, progress;
+		long done;
+		volatile long fetched;
+
+		ChunkDownloader(int id, String url, long start, long end, long done, FileChannel file, FileChannel progress) {
+			this.id = id;
+			this.url = url;
+			this.start = start;
+			this.end = end;
+			this.done = done;
+			this.file = file;
+			this.progress = progress;
+		}
+
+		@Override
+		public Boolean call() throws Exception {
+			HttpClient c = new HttpClient1_0();
+			long t0 = System.nanoTime();
+			int retries = 0;
+			while (start + done < end) {
+				long pos = start + done;
+				byte[] data = c.doRangeGet(url, pos, Math.min(end, pos + BLOCK_SIZE) - 1);
+				if (data == null || data.length == 0) {
+					if (++retries > MAX_RETRIES)
+						break;
+					// backs off, doubling the delay with each retry of the same block
+					Thread.sleep(RETRY_DELAY_MS << (retries - 1));
+					continue;
+				}
+				retries = 0;
+				write(file, data, pos);
+				done += data.length;
+				fetched += data.length;
+				write(progress, ByteBuffer.allocate(Long.BYTES).putLong(done).array(), PROGRESS_HEADER_SIZE + id * Long.BYTES);
+			}
+			double elapsed = (System.nanoTime() - t0) / 1e9;
+			System.out.printf("Connection %d: %d bytes in %.3f s, %.1f KB/s\n", id, fetched, elapsed, fetched / 1024.0 / elapsed);
+			return start + done >= end;
+		}
+
+		static void write(FileChannel channel, byte[] data, long position) throws IOException {
+			var buf = ByteBuffer.wrap(data);
+			while (buf.hasRemaining())
+				channel.write(buf, position + buf.position());
+		}
+	}
 }
@@ -0,0 +1,77 @@
+package bench;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Minimal micro-benchmark harness.
+ *
+ * Each operation is run for a few warmup rounds, to let the JIT compiler settle,
+ * and then for a few measurement rounds of fixed duration. Reports the mean
+ * throughput (ops/s) and the bytes allocated per operation by the calling
+ * thread.
+ *
+ * Operations return a value, which is accumulated, so that the JIT compiler
+ * cannot discard their work as dead code.
+ *
+ * @author smduarte
+ *
+ */
+public class Benchmark {
+
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int ROUNDS = 5;
+	private static final long ROUND_NANOS = 500_000_000L;
+	private static final int BATCH = 1000;
+
+	private static volatile long sink;
+
+	public static interface Op {
+		long run() throws Exception;
+	}
+
+	/**
+	 * The result of a benchmark. Bytes per op is -1, if the JVM cannot measure
+	 * thread allocations.
+	 */
+	public static record Result(String name, double opsPerSec, double bytesPerOp) {
+		public String toString() {
+			return String.format("%-36s %14.0f ops/s %10.1f B/op", name, opsPerSec, bytesPerOp);
+		}
+	}
+
+	public static Result run(String name, Op op) throws Exception {
+		for (int r = 0; r < WARMUP_ROUNDS; r++)
+			round(op);
+
+		long bytes0 = allocatedBytes(), ops = 0;
+		double opsPerSec = 0;
+		for (int r = 0; r < ROUNDS; r++) {
+			long t0 = System.nanoTime();
+			long n = round(op);
+			opsPerSec += n / ((System.nanoTime() - t0) / 1e9);
+			ops += n;
+		}
+		long bytes1 = allocatedBytes();
+		var res = new Result(name, opsPerSec / ROUNDS, bytes0 < 0 ? -1 : (bytes1 - bytes0) / (double) ops);
+		System.out.println(res);
+		return res;
+	}
+
+	private static long round(Op op) throws Exception {
+		long deadline = System.nanoTime() + ROUND_NANOS, ops = 0, acc = 0;
+		do {
+			for (int i = 0; i < BATCH; i++)
+				acc += op.run();
+			ops += BATCH;
+		} while (System.nanoTime() < deadline);
+		sink += acc;
+		return ops;
+	}
+
+	private static long allocatedBytes() {
+		if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean tmx && tmx.isThreadAllocatedMemorySupported())
+			return tmx.getThreadAllocatedBytes(Thread.currentThread().getId());
+		else
+			return -1;
+	}
+}
@@ -0,0 +1,115 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.util.function.ToLongFunction;
+
+import http.Http;
+
+/**
+ * Benchmarks the Http parsing helpers over realistic requests and replies, as
+ * exchanged between the browser, the proxy and the media server.
+ *
+ * Only uses the methods shared by all copies of http.Http, so other copies can
+ * be measured by putting their classes on the classpath instead.
+ *
+ * @author smduarte
+ *
+ */
+public class HttpBenchmark {
+
+	static final String BROWSER_REQUEST = "GET /player1/coco/segment HTTP/1.1\r\n"
+			+ "Host: localhost:1234\r\n"
+			+ "Connection: keep-alive\r\n"
+			+ "User-Agent: Mozilla/5.0 (X11; Linux x86_64) AppleWebKit/537.36 (KHTML, like Gecko) Chrome/94.0.4606.81 Safari/537.36\r\n"
+			+ "Accept: */*\r\n"
+			+ "Origin: http://localhost:9999\r\n"
+			+ "Sec-Fetch-Site: same-site\r\n"
+			+ "Sec-Fetch-Mode: cors\r\n"
+			+ "Sec-Fetch-Dest: empty\r\n"
+			+ "Referer: http://localhost:9999/\r\n"
+			+ "Accept-Encoding: gzip, deflate, br\r\n"
+			+ "Accept-Language: pt-PT,pt;q=0.9,en-US;q=0.8,en;q=0.7\r\n"
+			+ "\r\n";
+
+	static final String[] REQUEST_LINES = {
+			"GET /player1/coco/start HTTP/1.1",
+			"GET /coco/coco-3.mp4 HTTP/1.1",
+			"GET /coco/manifest.txt HTTP/1.0",
+			"POST /upload?file=earth.jpg&overwrite=true HTTP/1.1",
+			"HEAD /index.html HTTP/1.0" };
+
+	static final String[] HEADER_LINES = {
+			"Host: localhost:9999",
+			"User-Agent: X-aaaaa-bbbbb",
+			"Content-Length: 270231",
+			"Content-Range: bytes 1237-271467/5003819",
+			"Content-Type: video/mp4; codecs=\"avc1.42C015, mp4a.40.2\"",
+			"Last-Modified: Fri, 08 Oct 2021 16:25:33 GMT",
+			"Connection: Keep-Alive" };
+
+	static final String[] RANGE_LINES = {
+			"Range: bytes=0-1236",
+			"Range: bytes=1237-271467",
+			"Range: bytes=271468-",
+			"Range: bytes=4733588-5003818" };
+
+	static final String[] QUERY_RESOURCES = {
+			"/upload?file=earth.jpg&overwrite=true",
+			"/word?ip=127.0.0.1&port=1234",
+			"http://localhost:9999/coco/coco-1.mp4?start=1237&end=271467&player=player1",
+			"/index.html" };
+
+	public static void main(String[] args) throws Exception {
+		var in = new ByteArrayInputStream(BROWSER_REQUEST.getBytes());
+
+		Benchmark.run("readLine (browser request)", () -> {
+			in.reset();
+			long res = 0;
+			String line;
+			while ((line = Http.readLine(in)).length() > 0)
+				res += line.length();
+			return res;
+		});
+
+		Benchmark.run("parseHttpRequest", new Cycle<>(REQUEST_LINES, line -> Http.parseHttpRequest(line).length));
+		Benchmark.run("parseHttpHeader", new Cycle<>(HEADER_LINES, line -> valueLength(Http.parseHttpHeader(line))));
+		Benchmark.run("parseRangeValues", new Cycle<>(RANGE_LINES, line -> Http.parseRangeValues(line)[0]));
+		Benchmark.run("parseQuery", new Cycle<>(QUERY_RESOURCES, resource -> Http.parseQuery("_", resource).size()));
+
+		Benchmark.run("browser request (full head)", () -> {
+			in.reset();
+			long res = Http.parseHttpRequest(Http.readLine(in))[1].length();
+			String line;
+			while ((line = Http.readLine(in)).length() > 0)
+				res += valueLength(Http.parseHttpHeader(line));
+			return res;
+		});
+	}
+
+	// some copies of Http reject header values with spaces
+	static long valueLength(String[] header) {
+		return header == null ? 0 : header[1].length();
+	}
+
+	/**
+	 * Applies an operation to each input in turn, so that a benchmark covers a
+	 * varied set of inputs.
+	 */
+	static class Cycle<T> implements Benchmark.Op {
+		final T[] inputs;
+		final ToLongFunction<T> op;
+		int next;
+
+		Cycle(T[] inputs, ToLongFunction<T> op) {
+			this.inputs = inputs;
+			this.op = op;
+		}
+
+		@Override
+		public long run() {
+			T input = inputs[next];
+			next = (next + 1) % inputs.length;
+			return op.applyAsLong(input);
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+import http.Http;
+import http.HttpHeaderParser;
+import http.HttpHeaderParser.Event;
+
+/**
+ * Compares the regex-based Http helpers against HttpHeaderParser, parsing the
+ * head of a typical range reply from the media server.
+ *
+ * @author smduarte
+ *
+ */
+public class HttpParserBenchmark {
+
+	static final byte[] REPLY_HEAD = ("HTTP/1.1 206 Partial Content\r\n"
+			+ "Date: Mon, 18 Oct 2021 10:00:00 GMT\r\n"
+			+ "Server: Apache/2.4.41 (Ubuntu)\r\n"
+			+ "Last-Modified: Fri, 08 Oct 2021 16:25:33 GMT\r\n"
+			+ "ETag: \"4c5a2b-5ce0d7c9a1d40\"\r\n"
+			+ "Accept-Ranges: bytes\r\n"
+			+ "Content-Length: 270231\r\n"
+			+ "Content-Range: bytes 1237-271467/5003819\r\n"
+			+ "Keep-Alive: timeout=5, max=100\r\n"
+			+ "Connection: Keep-Alive\r\n"
+			+ "Content-Type: video/mp4\r\n"
+			+ "\r\n").getBytes();
+
+	public static void main(String[] args) throws Exception {
+		var in = new ByteArrayInputStream(REPLY_HEAD);
+		var buf = ByteBuffer.wrap(REPLY_HEAD);
+		var parser = new HttpHeaderParser();
+
+		if (parseWithHttp(in) != parseWithParser(parser, buf))
+			throw new AssertionError("Parsers disagree");
+
+		Benchmark.run("reply head (Http)", () -> {
+			in.reset();
+			return parseWithHttp(in);
+		});
+		Benchmark.run("reply head (HttpHeaderParser)", () -> parseWithParser(parser, buf.clear()));
+	}
+
+	static long parseWithHttp(InputStream in) throws IOException {
+		long res = Integer.valueOf(Http.parseHttpReply(Http.readLine(in))[1]);
+		String line;
+		while ((line = Http.readLine(in)).length() > 0) {
+			String[] header = Http.parseHttpHeader(line);
+			if (header[0].equalsIgnoreCase("Content-Length"))
+				res += Long.valueOf(header[1]);
+			else if (header[0].equalsIgnoreCase("Content-Range"))
+				res += Http.parseRangeValuesSentByServer(line)[2];
+		}
+		return res;
+	}
+
+	static long parseWithParser(HttpHeaderParser parser, ByteBuffer buf) {
+		parser.reset().next(buf);
+		long res = parser.statusCode(buf);
+		while (parser.next(buf) == Event.HEADER) {
+			if (parser.nameIs(buf, "Content-Length"))
+				res += parser.valueAsLong(buf);
+			else if (parser.nameIs(buf, "Content-Range") && parser.parseRange(buf))
+				res += parser.rangeTotal();
+		}
+		return res;
+	}
+}
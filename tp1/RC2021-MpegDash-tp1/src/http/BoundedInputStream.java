@@ -0,0 +1,91 @@
+package http;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.function.Consumer;
+
+/**
+ * An input stream over a reply body, limited to the given number of bytes.
+ *
+ * Closing the stream does not close the underlying stream, but calls back the
+ * owner of the connection, telling it whether the body was fully read, so that
+ * the connection can be reused or closed.
+ *
+ * If the underlying stream ends before the given length, reading fails with an
+ * EOFException, and the body is not taken as fully read.
+ *
+ * @author smduarte
+ *
+ */
+public class BoundedInputStream extends InputStream {
+
+	private final InputStream in;
+	private final Consumer<Boolean> onClose;
+	private final boolean bounded;
+	private long remaining;
+	private boolean closed;
+
+	/**
+	 * @param in      - the underlying stream
+	 * @param length  - the number of bytes that can be read, or -1 to read until the end of the underlying stream
+	 * @param onClose - called once, when this stream is closed, with true if all the bytes were read
+	 */
+	public BoundedInputStream(InputStream in, long length, Consumer<Boolean> onClose) {
+		this.in = in;
+		this.bounded = length >= 0;
+		this.remaining = bounded ? length : Long.MAX_VALUE;
+		this.onClose = onClose;
+	}
+
+	@Override
+	public int read() throws IOException {
+		if (remaining == 0)
+			return -1;
+		int c = in.read();
+		if (c < 0)
+			endOfStream();
+		else
+			remaining--;
+		return c;
+	}
+
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (remaining == 0)
+			return -1;
+		int n = in.read(b, off, (int) Math.min(len, remaining));
+		if (n < 0)
+			endOfStream();
+		else
+			remaining -= n;
+		return n;
+	}
+
+	// the end of the underlying stream only ends a body of unknown length
+	private void endOfStream() throws EOFException {
+		if (bounded)
+			throw new EOFException(String.format("Reply body ended %d bytes short", remaining));
+		remaining = 0;
+	}
+
+	@Override
+	public int available() throws IOException {
+		return (int) Math.min(in.available(), remaining);
+	}
+
+	/**
+	 * @return the number of bytes yet to be read
+	 */
+	public long remaining() {
+		return remaining;
+	}
+
+	@Override
+	public void close() {
+		if (!closed) {
+			closed = true;
+			onClose.accept(remaining == 0);
+		}
+	}
+}
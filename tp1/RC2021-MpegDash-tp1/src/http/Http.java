@@ -34,14 +34,14 @@ public class Http {
 	 * Reads one line from an InputStream
 	 */
 	public static String readLine(InputStream is) throws IOException {
-		StringBuffer sb = new StringBuffer();
+		StringBuilder sb = new StringBuilder();
 		int c;
 		while ((c = is.read()) >= 0) {
 			if (c == '\r')
 				continue;
 			if (c == '\n')
 				break;
-			sb.append(Character.valueOf((char) c));
+			sb.append((char) c);
 		}
 		return sb.toString();			
 	}
@@ -1,5 +1,9 @@
 package http;
 
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Interface for a basic HTTP client 
  * 
@@ -23,6 +27,31 @@ public interface HttpClient {
 	 */
 	byte[] doGet(String url);
 
+	/**
+	 * Stores the reply to a conditional get, with the validators of the resource
+	 * sent by the server (null if missing). The body is null if the resource was
+	 * not modified.
+	 */
+	static record Validated(byte[] body, String lastModified, String etag) {
+	}
+
+	/**
+	 * Gets the full contents of a resource, only if it was modified since it was
+	 * fetched with the given validators, using If-Modified-Since and
+	 * If-None-Match.
+	 * 
+	 * By default, the resource is always fetched, without validators.
+	 * 
+	 * @param url - the url of the requested resource
+	 * @param lastModified - the Last-Modified value of the previous fetch, or null
+	 * @param etag - the ETag value of the previous fetch, or null
+	 * @return the reply, or null if an error occurred
+	 */
+	default Validated doGetConditional(String url, String lastModified, String etag) {
+		byte[] data = doGet(url);
+		return data == null ? null : new Validated(data, null, null);
+	}
+
 	/**
 	 * 
 	 * Gets a range of a resource' contents from a given offset
@@ -43,5 +72,41 @@ public interface HttpClient {
 	 * @return the contents range of the resource, or null if an error occurred
 	 */
 	public byte[] doGetRange(String url, long start, long end);
-	
+
+	/**
+	 * 
+	 * Gets a range of a resource' contents as a stream, so that it can be
+	 * consumed without holding the whole range in memory.
+	 * 
+	 * The stream ends with the reply body. It must be closed, to release the
+	 * underlying connection.
+	 * 
+	 * @param url - the url of the requested resource
+	 * @param start - the start offset of the requested range
+	 * @param end - the end offset of the requested range (inclusive), or -1 for the rest of the resource
+	 * @return a stream over the contents range of the resource, or null if an error occurred
+	 */
+	public InputStream doGetRangeStream(String url, long start, long end);
+
+	/**
+	 * 
+	 * Gets several ranges of a resource' contents, in order.
+	 * 
+	 * Implementations may pipeline the requests over a single connection. By
+	 * default, the ranges are fetched one at a time.
+	 * 
+	 * @param url - the url of the requested resource
+	 * @param ranges - the list of [start, end] offsets of the requested ranges (end is inclusive)
+	 * @return the contents of each range, in the same order, or null if an error occurred
+	 */
+	default List<byte[]> doGetRanges(String url, List<long[]> ranges) {
+		var res = new ArrayList<byte[]>(ranges.size());
+		for (long[] range : ranges) {
+			byte[] data = doGetRange(url, range[0], range[1]);
+			if (data == null)
+				return null;
+			res.add(data);
+		}
+		return res;
+	}
 }
@@ -1,5 +1,6 @@
 package http;
 
+import java.io.BufferedInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.Socket;
@@ -13,28 +14,75 @@ import java.net.URL;
 public class HttpClient10 implements HttpClient {
 
 	private static final String HTTP_SUCCESS = "20";
+	private static final String CONTENT_LENGTH = "Content-Length";
 	private static final String GET_FORMAT_STR = "GET %s HTTP/1.0\r\n%s\r\n\r\n";
+	private static final String GET_RANGE_FORMAT_STR = "GET %s HTTP/1.0\r\nRange: bytes=%d-%s\r\n%s\r\n\r\n";
 
 	static private byte[] getContents(InputStream in) throws IOException {
+		getHeaders(in);
+		return in.readAllBytes();
+	}
+
+	/**
+	 * Reads the status line and headers of the reply
+	 * 
+	 * @return the value of the Content-Length header, or -1 if missing
+	 */
+	static private long getHeaders(InputStream in) throws IOException {
 
 		String reply = Http.readLine(in);
 		//System.out.println(reply);
 		if (!reply.contains(HTTP_SUCCESS)) {
 			throw new RuntimeException(String.format("HTTP request failed: [%s]", reply));
 		}
+		long contentLength = -1;
 		while ((reply = Http.readLine(in)).length() > 0) {
 			//System.out.println(reply);
+			String[] header = Http.parseHttpHeader(reply);
+			if (header != null && header[0].equalsIgnoreCase(CONTENT_LENGTH))
+				contentLength = Long.valueOf(header[1].trim());
 		}
-		return in.readAllBytes();
+		return contentLength;
 	}
 	
 	@Override
 	public byte[] doGet(String urlStr) {
+		return doGet(urlStr, -1, -1);
+	}
+
+	public byte[] doGetRange(String urlStr, long start, long end) {
+		return doGet(urlStr, start, end);
+	}
+
+	@Override
+	public byte[] doGetRange(String url, long start) {
+		return doGet(url, start, -1);
+	}
+
+	@Override
+	public InputStream doGetRangeStream(String urlStr, long start, long end) {
+		Socket cs = null;
 		try {
 			URL url = new URL(urlStr);
-			int port = url.getPort();
-			try (Socket cs = new Socket(url.getHost(), port < 0 ? url.getDefaultPort(): port)) {
-				String request = String.format(GET_FORMAT_STR, url.getFile(), USER_AGENT);
+			cs = connect(url);
+			cs.getOutputStream().write(request(url, start, end).getBytes());
+
+			InputStream in = new BufferedInputStream(cs.getInputStream());
+			long contentLength = getHeaders(in);
+			Socket socket = cs;
+			return new BoundedInputStream(in, contentLength, fullyRead -> close(socket));
+		} catch (Exception x) {
+			x.printStackTrace();
+			close(cs);
+			return null;
+		}
+	}
+
+	private byte[] doGet(String urlStr, long start, long end) {
+		try {
+			URL url = new URL(urlStr);
+			try (Socket cs = connect(url)) {
+				String request = request(url, start, end);
 				//System.out.println(request);
 				cs.getOutputStream().write(request.getBytes());
 				return getContents(cs.getInputStream());
@@ -45,14 +93,21 @@ public class HttpClient10 implements HttpClient {
 		}
 	}
 
-	public byte[] doGetRange(String urlStr, long start, long end) {
-		// TODO
-		return null;
+	private static Socket connect(URL url) throws IOException {
+		int port = url.getPort();
+		return new Socket(url.getHost(), port < 0 ? url.getDefaultPort(): port);
 	}
 
-	@Override
-	public byte[] doGetRange(String url, long start) {
-		// TODO
-		return null;
-	}	
+	private static String request(URL url, long start, long end) {
+		return start < 0 ? String.format(GET_FORMAT_STR, url.getFile(), USER_AGENT)
+				: String.format(GET_RANGE_FORMAT_STR, url.getFile(), start, end < 0 ? "" : end, USER_AGENT);
+	}
+
+	private static void close(Socket cs) {
+		try {
+			if (cs != null)
+				cs.close();
+		} catch (IOException x) {
+		}
+	}
 }
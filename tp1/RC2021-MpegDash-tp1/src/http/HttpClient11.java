@@ -0,0 +1,510 @@
+package http;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import http.HttpHeaderParser.Event;
+
+/**
+ * Implements a basic HTTP1.1 client, with persistent connections.
+ *
+ * Connections are kept alive and pooled per host:port, so that consecutive
+ * requests to the same server do not pay for a new TCP handshake. Pooled
+ * connections left idle for longer than IDLE_TIMEOUT are evicted.
+ *
+ * Replies are framed either by Content-Length or by chunked transfer encoding.
+ *
+ * Range requests for the same resource can be pipelined: up to
+ * MAX_PIPELINE_DEPTH requests are written back to back on one connection and
+ * the replies are read in order.
+ *
+ * @author smduarte
+ *
+ */
+public class HttpClient11 implements HttpClient, Closeable {
+
+	private static final int HTTP_200_OK = 200;
+	private static final int HTTP_206_PARTIAL = 206;
+	private static final int HTTP_304_NOT_MODIFIED = 304;
+	private static final String HTTP_1_0 = "HTTP/1.0";
+
+	private static final String GET_FORMAT_STR = "GET %s HTTP/1.1\r\nHost: %s\r\n%s\r\n\r\n";
+	private static final String GET_RANGE_FORMAT_STR = "GET %s HTTP/1.1\r\nHost: %s\r\nRange: bytes=%d-%s\r\n%s\r\n\r\n";
+	private static final String GET_CONDITIONAL_FORMAT_STR = "GET %s HTTP/1.1\r\nHost: %s\r\n%s%s\r\n\r\n";
+
+	private static final String CONTENT_LENGTH = "Content-Length";
+	private static final String TRANSFER_ENCODING = "Transfer-Encoding";
+	private static final String CONNECTION = "Connection";
+	private static final String CHUNKED = "chunked";
+	private static final String CLOSE = "close";
+	private static final String KEEP_ALIVE = "keep-alive";
+	private static final String LAST_MODIFIED = "Last-Modified";
+	private static final String ETAG = "ETag";
+	private static final String IF_MODIFIED_SINCE = "If-Modified-Since";
+	private static final String IF_NONE_MATCH = "If-None-Match";
+
+	static final int IDLE_TIMEOUT = 5000;
+	static final int MAX_IDLE_PER_HOST = 8;
+	static final int MAX_PIPELINE_DEPTH = 16;
+
+	private static final int SOCKET_TIMEOUT = 10000;
+	private static final int BUF_SIZE = 16 * 1024;
+	private static final int HEAD_BUF_SIZE = 8 * 1024;
+
+	private final ConnectionPool pool = new ConnectionPool();
+
+	@Override
+	public byte[] doGet(String urlStr) {
+		return doGet(urlStr, -1, -1);
+	}
+
+	@Override
+	public byte[] doGetRange(String urlStr, long start) {
+		return doGet(urlStr, start, -1);
+	}
+
+	@Override
+	public byte[] doGetRange(String urlStr, long start, long end) {
+		return doGet(urlStr, start, end);
+	}
+
+	@Override
+	public List<byte[]> doGetRanges(String urlStr, List<long[]> ranges) {
+		try {
+			URL url = new URL(urlStr);
+			var res = new ArrayList<byte[]>(ranges.size());
+			while (res.size() < ranges.size()) {
+				int done = res.size();
+				int depth = Math.min(ranges.size() - done, MAX_PIPELINE_DEPTH);
+				var requests = new StringBuilder();
+				for (var range : ranges.subList(done, done + depth))
+					requests.append(request(url, range[0], range[1]));
+
+				// Replies not received before the server closes the connection are
+				// requested again, on the next iteration.
+				Connection conn = pool.acquire(url);
+				try {
+					pipeline(conn, requests.toString(), depth, res);
+				} catch (IOException x) {
+					conn.close();
+					if (!conn.reused && res.size() == done)
+						throw x;
+				}
+			}
+			return res;
+		} catch (Exception x) {
+			x.printStackTrace();
+			return null;
+		}
+	}
+
+	private void pipeline(Connection conn, String requests, int depth, List<byte[]> res) throws IOException {
+		conn.out.write(requests.getBytes());
+		for (int i = 0; i < depth; i++) {
+			Reply reply = readReply(conn);
+			if (reply.body == null) {
+				conn.close();
+				throw new RuntimeException(String.format("HTTP request failed: [%s]", reply.statusLine));
+			}
+			res.add(reply.body);
+			if (!reply.keepAlive) {
+				conn.close();
+				return;
+			}
+		}
+		pool.release(conn);
+	}
+
+	/**
+	 * Closes all pooled connections
+	 */
+	@Override
+	public void close() {
+		pool.clear();
+	}
+
+	private byte[] doGet(String urlStr, long start, long end) {
+		try {
+			URL url = new URL(urlStr);
+			String request = request(url, start, end);
+
+			// A pooled connection may have been closed by the server in the meantime,
+			// so a failure on a reused connection is retried once on a fresh one.
+			Connection conn = pool.acquire(url);
+			try {
+				return execute(conn, request);
+			} catch (IOException x) {
+				conn.close();
+				if (!conn.reused)
+					throw x;
+			}
+			conn = pool.connect(url);
+			try {
+				return execute(conn, request);
+			} catch (IOException x) {
+				conn.close();
+				throw x;
+			}
+		} catch (Exception x) {
+			x.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * The returned stream reads the body straight from the connection, so a range
+	 * is never held in memory as a whole. Closing the stream after reading the
+	 * whole body returns the connection to the pool.
+	 * 
+	 * Chunked replies are the exception: they are read in full before returning.
+	 */
+	@Override
+	public InputStream doGetRangeStream(String urlStr, long start, long end) {
+		try {
+			URL url = new URL(urlStr);
+			String request = request(url, start, end);
+
+			Connection conn = pool.acquire(url);
+			try {
+				return stream(conn, request);
+			} catch (IOException x) {
+				conn.close();
+				if (!conn.reused)
+					throw x;
+			}
+			conn = pool.connect(url);
+			try {
+				return stream(conn, request);
+			} catch (IOException x) {
+				conn.close();
+				throw x;
+			}
+		} catch (Exception x) {
+			x.printStackTrace();
+			return null;
+		}
+	}
+
+	@Override
+	public Validated doGetConditional(String urlStr, String lastModified, String etag) {
+		try {
+			URL url = new URL(urlStr);
+			String request = conditionalRequest(url, lastModified, etag);
+
+			Connection conn = pool.acquire(url);
+			try {
+				return executeConditional(conn, request);
+			} catch (IOException x) {
+				conn.close();
+				if (!conn.reused)
+					throw x;
+			}
+			conn = pool.connect(url);
+			try {
+				return executeConditional(conn, request);
+			} catch (IOException x) {
+				conn.close();
+				throw x;
+			}
+		} catch (Exception x) {
+			x.printStackTrace();
+			return null;
+		}
+	}
+
+	private Validated executeConditional(Connection conn, String request) throws IOException {
+		conn.out.write(request.getBytes());
+		Head head = readHead(conn, true);
+		byte[] body = readReplyBody(conn, head);
+		if (head.status == HTTP_304_NOT_MODIFIED)
+			return new Validated(null, head.lastModified, head.etag);
+		if (!head.success)
+			throw new RuntimeException(String.format("HTTP request failed: [%s]", head.statusLine));
+		return new Validated(body, head.lastModified, head.etag);
+	}
+
+	private InputStream stream(Connection conn, String request) throws IOException {
+		conn.out.write(request.getBytes());
+		Head head = readHead(conn, false);
+		if (!head.success) {
+			readReplyBody(conn, head);
+			throw new RuntimeException(String.format("HTTP request failed: [%s]", head.statusLine));
+		}
+		if (head.chunked)
+			return new ByteArrayInputStream(readReplyBody(conn, head));
+
+		return new BoundedInputStream(conn.in, head.contentLength, fullyRead -> {
+			if (fullyRead && head.keepAlive)
+				pool.release(conn);
+			else
+				conn.close();
+		});
+	}
+
+	private byte[] readReplyBody(Connection conn, Head head) throws IOException {
+		byte[] body;
+		if (head.chunked)
+			body = readChunked(conn.in);
+		else if (head.contentLength >= 0)
+			body = readFully(conn.in, head.contentLength);
+		else
+			body = conn.in.readAllBytes();
+		if (head.keepAlive)
+			pool.release(conn);
+		else
+			conn.close();
+		return body;
+	}
+
+	private byte[] execute(Connection conn, String request) throws IOException {
+		conn.out.write(request.getBytes());
+		Reply reply = readReply(conn);
+		if (reply.keepAlive)
+			pool.release(conn);
+		else
+			conn.close();
+
+		if (reply.body == null)
+			throw new RuntimeException(String.format("HTTP request failed: [%s]", reply.statusLine));
+		return reply.body;
+	}
+
+	static String request(URL url, long start, long end) {
+		String host = url.getPort() < 0 ? url.getHost() : url.getHost() + ":" + url.getPort();
+		if (start < 0)
+			return String.format(GET_FORMAT_STR, url.getFile(), host, USER_AGENT);
+		else
+			return String.format(GET_RANGE_FORMAT_STR, url.getFile(), host, start, end < 0 ? "" : end, USER_AGENT);
+	}
+
+	static String conditionalRequest(URL url, String lastModified, String etag) {
+		String host = url.getPort() < 0 ? url.getHost() : url.getHost() + ":" + url.getPort();
+		var conditions = new StringBuilder();
+		if (lastModified != null)
+			conditions.append(IF_MODIFIED_SINCE).append(": ").append(lastModified).append("\r\n");
+		if (etag != null)
+			conditions.append(IF_NONE_MATCH).append(": ").append(etag).append("\r\n");
+		return String.format(GET_CONDITIONAL_FORMAT_STR, url.getFile(), host, conditions, USER_AGENT);
+	}
+
+	/**
+	 * Stores a parsed reply. The body is null if the request was not successful.
+	 */
+	static record Reply(String statusLine, byte[] body, boolean keepAlive) {
+	}
+
+	/**
+	 * Stores the parsed status line and headers of a reply. The status line is
+	 * only kept if the request was not successful. The validators are only
+	 * kept if they were asked for.
+	 */
+	static record Head(String statusLine, int status, boolean success, long contentLength, boolean chunked, boolean keepAlive, String lastModified,
+			String etag) {
+	}
+
+	/**
+	 * Reads a full reply from the connection, leaving it positioned at the start
+	 * of the next reply.
+	 */
+	static Reply readReply(Connection conn) throws IOException {
+		Head head = readHead(conn, false);
+
+		byte[] body;
+		boolean keepAlive = head.keepAlive;
+		if (head.chunked)
+			body = readChunked(conn.in);
+		else if (head.contentLength >= 0)
+			body = readFully(conn.in, head.contentLength);
+		else {
+			body = conn.in.readAllBytes();
+			keepAlive = false;
+		}
+		return new Reply(head.statusLine, head.success ? body : null, keepAlive);
+	}
+
+	/**
+	 * Reads the status line and headers of a reply, leaving the connection
+	 * positioned at the start of the body.
+	 * 
+	 * The head is parsed in place, in the connection's head buffer. Bytes read
+	 * past the end of the head are pushed back into the input stream.
+	 * 
+	 * @param validators - whether to keep the Last-Modified and ETag values
+	 */
+	static Head readHead(Connection conn, boolean validators) throws IOException {
+		var in = conn.in;
+		var buf = conn.head.clear().limit(0);
+		var parser = conn.parser.reset();
+
+		in.mark(HEAD_BUF_SIZE);
+		if (parser.next(buf, in) != Event.START_LINE)
+			throw new IOException("Malformed HTTP reply: " + parser.line(buf));
+
+		int status = parser.statusCode(buf);
+		boolean success = status == HTTP_200_OK || status == HTTP_206_PARTIAL;
+		String statusLine = success ? null : parser.line(buf);
+
+		boolean keepAlive = !parser.tokenIs(buf, 0, HTTP_1_0);
+		boolean chunked = false;
+		long contentLength = -1;
+		String lastModified = null, etag = null;
+
+		Event e;
+		while ((e = parser.next(buf, in)) == Event.HEADER) {
+			if (parser.nameIs(buf, CONTENT_LENGTH))
+				contentLength = parser.valueAsLong(buf);
+			else if (parser.nameIs(buf, TRANSFER_ENCODING))
+				chunked = parser.valueIs(buf, CHUNKED);
+			else if (parser.nameIs(buf, CONNECTION))
+				keepAlive = parser.valueIs(buf, KEEP_ALIVE) || (keepAlive && !parser.valueIs(buf, CLOSE));
+			else if (validators && parser.nameIs(buf, LAST_MODIFIED))
+				lastModified = parser.value(buf);
+			else if (validators && parser.nameIs(buf, ETAG))
+				etag = parser.value(buf);
+		}
+		if (e != Event.END)
+			throw new IOException("Malformed HTTP reply headers");
+
+		in.reset();
+		in.skipNBytes(buf.position());
+
+		// a not modified reply never has a body
+		if (status == HTTP_304_NOT_MODIFIED) {
+			chunked = false;
+			contentLength = 0;
+		}
+		if (!chunked && contentLength < 0)
+			keepAlive = false;
+
+		return new Head(statusLine, status, success, contentLength, chunked, keepAlive, lastModified, etag);
+	}
+
+	static byte[] readFully(InputStream in, long length) throws IOException {
+		if (length > Integer.MAX_VALUE)
+			throw new IOException("Reply body too large: " + length);
+		byte[] body = in.readNBytes((int) length);
+		if (body.length < length)
+			throw new IOException("Connection closed before the end of the reply body");
+		return body;
+	}
+
+	static byte[] readChunked(InputStream in) throws IOException {
+		var body = new ByteArrayOutputStream();
+		for (;;) {
+			String sizeLine = Http.readLine(in);
+			int ext = sizeLine.indexOf(';');
+			int size = Integer.parseInt((ext < 0 ? sizeLine : sizeLine.substring(0, ext)).trim(), 16);
+			if (size == 0)
+				break;
+			body.write(readFully(in, size));
+			Http.readLine(in);
+		}
+		// skip trailers
+		while (Http.readLine(in).length() > 0)
+			;
+		return body.toByteArray();
+	}
+
+	/**
+	 * A persistent connection to a server
+	 */
+	static class Connection {
+		final String key;
+		final Socket socket;
+		final InputStream in;
+		final OutputStream out;
+		final HttpHeaderParser parser;
+		final ByteBuffer head;
+		long lastUsed;
+		boolean reused;
+
+		Connection(String key, Socket socket) throws IOException {
+			this.key = key;
+			this.socket = socket;
+			this.parser = new HttpHeaderParser();
+			this.head = ByteBuffer.allocate(HEAD_BUF_SIZE);
+			this.in = new BufferedInputStream(socket.getInputStream(), BUF_SIZE);
+			this.out = socket.getOutputStream();
+		}
+
+		boolean expired(long now) {
+			return now - lastUsed > IDLE_TIMEOUT || socket.isClosed();
+		}
+
+		void close() {
+			try {
+				socket.close();
+			} catch (IOException x) {
+			}
+		}
+	}
+
+	/**
+	 * Keeps idle connections per host:port, most recently used first.
+	 */
+	static class ConnectionPool {
+		private final Map<String, Deque<Connection>> idle = new HashMap<>();
+
+		static String key(URL url) {
+			int port = url.getPort();
+			return url.getHost() + ":" + (port < 0 ? url.getDefaultPort() : port);
+		}
+
+		Connection acquire(URL url) throws IOException {
+			String key = key(url);
+			long now = System.currentTimeMillis();
+			synchronized (this) {
+				var conns = idle.get(key);
+				Connection conn;
+				while (conns != null && (conn = conns.pollFirst()) != null) {
+					if (!conn.expired(now)) {
+						conn.reused = true;
+						return conn;
+					}
+					conn.close();
+				}
+			}
+			return connect(url);
+		}
+
+		Connection connect(URL url) throws IOException {
+			int port = url.getPort();
+			var socket = new Socket();
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(SOCKET_TIMEOUT);
+			socket.connect(new InetSocketAddress(url.getHost(), port < 0 ? url.getDefaultPort() : port));
+			return new Connection(key(url), socket);
+		}
+
+		synchronized void release(Connection conn) {
+			long now = System.currentTimeMillis();
+			conn.lastUsed = now;
+			var conns = idle.computeIfAbsent(conn.key, k -> new ArrayDeque<>());
+			conns.addFirst(conn);
+			// evict from the tail, where the least recently used connections are
+			while (!conns.isEmpty() && (conns.size() > MAX_IDLE_PER_HOST || conns.peekLast().expired(now)))
+				conns.pollLast().close();
+		}
+
+		synchronized void clear() {
+			for (var conns : idle.values())
+				conns.forEach(Connection::close);
+			idle.clear();
+		}
+	}
+}
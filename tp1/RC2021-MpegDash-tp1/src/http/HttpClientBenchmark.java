@@ -0,0 +1,72 @@
+package http;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Compares the segment fetch rate of HttpClient10 and HttpClient11 against a
+ * local stand-in media server, with and without request pipelining.
+ *
+ * Usage: [segments] [segmentSize] [connectDelay (ms)]
+ *
+ * The connect delay emulates the cost of the TCP handshake on a real network,
+ * which is what persistent connections save on every segment.
+ *
+ * @author smduarte
+ *
+ */
+public class HttpClientBenchmark {
+
+	private static final int DEFAULT_SEGMENTS = 500;
+	private static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+	private static final int DEFAULT_CONNECT_DELAY = 0;
+	private static final int WARMUP_SEGMENTS = 50;
+
+	public static void main(String[] args) throws Exception {
+		int segments = args.length > 0 ? Integer.valueOf(args[0]) : DEFAULT_SEGMENTS;
+		int segmentSize = args.length > 1 ? Integer.valueOf(args[1]) : DEFAULT_SEGMENT_SIZE;
+		int connectDelay = args.length > 2 ? Integer.valueOf(args[2]) : DEFAULT_CONNECT_DELAY;
+
+		var server = new LocalMediaServer(segments * segmentSize, connectDelay).start();
+		String url = server.baseUrl() + "/movie/track.mp4";
+
+		System.out.printf("%d segments of %d bytes, connect delay: %d ms\n", segments, segmentSize, connectDelay);
+		try (var http11 = new HttpClient11()) {
+			for (HttpClient http : new HttpClient[] { new HttpClient10(), http11 }) {
+				run(http, url, server.track(), Math.min(segments, WARMUP_SEGMENTS), segmentSize);
+				double rate = run(http, url, server.track(), segments, segmentSize);
+				System.out.printf("%s: %.1f segments/s\n", http.getClass().getSimpleName(), rate);
+			}
+			double rate = runPipelined(http11, url, server.track(), segments, segmentSize);
+			System.out.printf("%s (pipelined): %.1f segments/s\n", http11.getClass().getSimpleName(), rate);
+		}
+		server.stop();
+	}
+
+	static double run(HttpClient http, String url, byte[] track, int segments, int segmentSize) {
+		long t0 = System.nanoTime();
+		for (int i = 0; i < segments; i++) {
+			int offset = i * segmentSize;
+			byte[] data = http.doGetRange(url, offset, offset + segmentSize - 1);
+			if (data == null || !Arrays.equals(data, 0, data.length, track, offset, offset + segmentSize))
+				throw new AssertionError("Bad segment: " + i);
+		}
+		return segments / ((System.nanoTime() - t0) / 1e9);
+	}
+
+	static double runPipelined(HttpClient http, String url, byte[] track, int segments, int segmentSize) {
+		var ranges = new ArrayList<long[]>();
+		for (int i = 0; i < segments; i++)
+			ranges.add(new long[] { i * segmentSize, (i + 1) * segmentSize - 1 });
+
+		long t0 = System.nanoTime();
+		var res = http.doGetRanges(url, ranges);
+		double rate = segments / ((System.nanoTime() - t0) / 1e9);
+		for (int i = 0; i < segments; i++) {
+			byte[] data = res == null || i >= res.size() ? null : res.get(i);
+			if (data == null || !Arrays.equals(data, 0, data.length, track, i * segmentSize, (i + 1) * segmentSize))
+				throw new AssertionError("Bad segment: " + i);
+		}
+		return rate;
+	}
+}
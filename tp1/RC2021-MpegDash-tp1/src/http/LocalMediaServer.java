@@ -0,0 +1,140 @@
+package http;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Random;
+
+/**
+ * Stand-in for the media server, for benchmarking HTTP clients locally.
+ *
+ * Every resource is served from the same synthetic in-memory track. Supports
+ * range requests and HTTP/1.1 persistent connections; HTTP/1.0 connections are
+ * closed after each reply.
+ *
+ * To emulate the cost of a TCP handshake on a real network, every new
+ * connection can be delayed by a configurable amount of time.
+ *
+ * @author smduarte
+ *
+ */
+public class LocalMediaServer implements Runnable {
+
+	private static final String HTTP_1_0 = "HTTP/1.0";
+	private static final String HTTP_OK_FMT = "%s 200 OK\r\nContent-Length: %d\r\n%s\r\n";
+	private static final String HTTP_PARTIAL_FMT = "%s 206 Partial Content\r\nContent-Range: bytes %d-%d/%d\r\nContent-Length: %d\r\n%s\r\n";
+	private static final String HTTP_NOT_SATISFIABLE_FMT = "%s 416 Range Not Satisfiable\r\nContent-Range: bytes */%d\r\nContent-Length: 0\r\n%s\r\n";
+	private static final String CONNECTION_CLOSE = "Connection: close\r\n";
+	private static final String CONNECTION_KEEP_ALIVE = "";
+
+	private static final int BUF_SIZE = 16 * 1024;
+
+	private final ServerSocket ss;
+	private final byte[] track;
+	private final int connectDelay;
+
+	/**
+	 * @param trackSize    - the size of the synthetic track, in bytes
+	 * @param connectDelay - the delay applied to every new connection, in ms
+	 */
+	public LocalMediaServer(int trackSize, int connectDelay) throws IOException {
+		this.ss = new ServerSocket(0);
+		this.track = new byte[trackSize];
+		this.connectDelay = connectDelay;
+		new Random(trackSize).nextBytes(track);
+	}
+
+	/**
+	 * Starts serving requests in a daemon thread
+	 *
+	 * @return this server
+	 */
+	public LocalMediaServer start() {
+		var t = new Thread(this);
+		t.setDaemon(true);
+		t.start();
+		return this;
+	}
+
+	public String baseUrl() {
+		return "http://localhost:" + ss.getLocalPort();
+	}
+
+	public byte[] track() {
+		return track;
+	}
+
+	@Override
+	public void run() {
+		for (;;) {
+			try {
+				Socket cs = ss.accept();
+				var t = new Thread(() -> serve(cs));
+				t.setDaemon(true);
+				t.start();
+			} catch (IOException x) {
+				return;
+			}
+		}
+	}
+
+	private void serve(Socket cs) {
+		try (cs) {
+			if (connectDelay > 0)
+				Thread.sleep(connectDelay);
+
+			cs.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(cs.getInputStream(), BUF_SIZE);
+			OutputStream out = new BufferedOutputStream(cs.getOutputStream(), BUF_SIZE);
+			for (;;) {
+				String request = Http.readLine(in);
+				String[] requestParts = Http.parseHttpRequest(request);
+				if (requestParts == null)
+					return;
+
+				boolean keepAlive = !requestParts[2].equals(HTTP_1_0);
+				long[] range = null;
+				String header;
+				while ((header = Http.readLine(in)).length() > 0) {
+					if (header.equalsIgnoreCase(CONNECTION_CLOSE.trim()))
+						keepAlive = false;
+					else if (range == null)
+						range = Http.parseRangeValues(header);
+				}
+				reply(out, requestParts[2], range, keepAlive);
+				out.flush();
+				if (!keepAlive)
+					return;
+			}
+		} catch (IOException | InterruptedException x) {
+		}
+	}
+
+	private void reply(OutputStream out, String version, long[] range, boolean keepAlive) throws IOException {
+		String connection = keepAlive ? CONNECTION_KEEP_ALIVE : CONNECTION_CLOSE;
+		if (range == null) {
+			out.write(String.format(HTTP_OK_FMT, version, track.length, connection).getBytes());
+			out.write(track);
+		} else {
+			long start = range[0], end = range[1] < 0 ? track.length - 1 : Math.min(range[1], track.length - 1);
+			if (start >= track.length || start > end)
+				out.write(String.format(HTTP_NOT_SATISFIABLE_FMT, version, track.length, connection).getBytes());
+			else {
+				int length = (int) (end - start + 1);
+				out.write(String.format(HTTP_PARTIAL_FMT, version, start, end, track.length, length, connection).getBytes());
+				out.write(track, (int) start, length);
+			}
+		}
+	}
+
+	public void stop() {
+		try {
+			ss.close();
+		} catch (IOException x) {
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package media;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.function.Supplier;
+
+import media.MovieManifest.Manifest;
+import media.MovieManifest.Segment;
+import media.MovieManifest.Track;
+
+/**
+ * Compares the parse time and retained heap of manifests parsed with
+ * java.util.Scanner into lists of records, parsed from bytes into primitive
+ * arrays, and memory-mapped from the binary sidecar format.
+ *
+ * Usage: [tracks] [segmentsPerTrack] [iterations]
+ *
+ * The manifest is synthetic, with the layout of the ones of the media server.
+ *
+ * @author smduarte
+ *
+ */
+public class ManifestBenchmark {
+
+	private static final int DEFAULT_TRACKS = 8;
+	private static final int DEFAULT_SEGMENTS = 100_000;
+	private static final int DEFAULT_ITERATIONS = 10;
+	private static final int WARMUP_ITERATIONS = 3;
+
+	public static void main(String[] args) throws Exception {
+		int tracks = args.length > 0 ? Integer.valueOf(args[0]) : DEFAULT_TRACKS;
+		int segments = args.length > 1 ? Integer.valueOf(args[1]) : DEFAULT_SEGMENTS;
+		int iterations = args.length > 2 ? Integer.valueOf(args[2]) : DEFAULT_ITERATIONS;
+
+		var text = manifest(tracks, segments);
+		var bytes = text.getBytes();
+		var sidecar = File.createTempFile("manifest", ".bin");
+		sidecar.deleteOnExit();
+		MovieManifest.write(MovieManifest.parse(bytes), sidecar);
+
+		System.out.printf("%d tracks of %d segments, %d bytes of text, %d bytes of sidecar\n", tracks, segments, bytes.length, sidecar.length());
+		run("Scanner", () -> parseWithScanner(text), iterations);
+		run("bytes", () -> MovieManifest.parse(bytes), iterations);
+		run("mapped", () -> {
+			try {
+				return MovieManifest.map(sidecar);
+			} catch (Exception x) {
+				x.printStackTrace();
+				return null;
+			}
+		}, iterations);
+	}
+
+	static void run(String name, Supplier<Manifest> parser, int iterations) {
+		long checksum = 0;
+		for (int i = 0; i < WARMUP_ITERATIONS; i++)
+			checksum += scan(parser.get());
+
+		long parseNanos = 0, scanNanos = 0;
+		for (int i = 0; i < iterations; i++) {
+			long t0 = System.nanoTime();
+			var manifest = parser.get();
+			long t1 = System.nanoTime();
+			checksum += scan(manifest);
+			parseNanos += t1 - t0;
+			scanNanos += System.nanoTime() - t1;
+		}
+
+		long before = usedHeap();
+		var retained = parser.get();
+		long heap = usedHeap() - before;
+		checksum += scan(retained);
+
+		System.out.printf("%s: parse %.2f ms, scan %.2f ms, retained heap: %d KB (checksum %x)\n", name, parseNanos / 1e6 / iterations,
+				scanNanos / 1e6 / iterations, heap >> 10, checksum);
+	}
+
+	// the segment accesses of a playback, over every track
+	static long scan(Manifest manifest) {
+		long res = 0;
+		for (var t : manifest.tracks())
+			for (int s = 0; s < t.segments().size(); s++)
+				res += t.segments().get(s).offset() ^ t.segments().get(s).length();
+		return res;
+	}
+
+	static long usedHeap() {
+		var rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++)
+			System.gc();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	static String manifest(int tracks, int segments) {
+		var sb = new StringBuilder();
+		sb.append("movie\n").append(tracks).append('\n');
+		for (int t = 0; t < tracks; t++) {
+			sb.append("movie-").append(t + 1).append(".mp4\n");
+			sb.append("video/mp4; codecs=\"avc1.42C015, mp4a.40.2\"\n");
+			sb.append(400_000 << t).append('\n').append(2000).append('\n').append(segments).append('\n');
+			int offset = 0;
+			for (int s = 0; s < segments; s++) {
+				int length = s == 0 ? 1237 : 1000 + (s * 7919) % 4000;
+				sb.append(offset).append(' ').append(length).append('\n');
+				offset += length;
+			}
+		}
+		return sb.toString();
+	}
+
+	// the original parser, as the baseline
+	static Manifest parseWithScanner(String manifest) {
+		try (var sc = new Scanner(manifest)) {
+			var movie = sc.nextLine();
+			var numTracks = Integer.valueOf(sc.nextLine());
+			var tracks = new ArrayList<Track>();
+			for (int t = 0; t < numTracks; t++) {
+				var filename = sc.nextLine();
+				var contentType = sc.nextLine();
+				var avgBandwidth = Integer.valueOf(sc.nextLine());
+				var duration = Integer.valueOf(sc.nextLine());
+				var numSegments = Integer.valueOf(sc.nextLine());
+
+				var segments = new ArrayList<Segment>();
+				for (var s = 0; s < numSegments; s++) {
+					var parts = sc.nextLine().split(" ");
+					int offset = Integer.valueOf(parts[0]);
+					int length = Integer.valueOf(parts[1]);
+					segments.add(new Segment(offset, length));
+				}
+				tracks.add(new Track(filename, contentType, avgBandwidth, duration, segments));
+			}
+			return new Manifest(movie, tracks);
+		}
+	}
+}
@@ -1,8 +1,24 @@
 package media;
 
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
+import java.util.RandomAccess;
 
 /**
  * Utility class for modelling the manifest data of a movie.
@@ -32,15 +48,90 @@ public class MovieManifest {
 	 * Stores the information of a movie track segment
 	 * 
 	 */
-	public static record Segment(int offset, int length) {
+	public static record Segment(long offset, long length) {
 	}
 
 	/**
 	 * 
-	 * Stores the encoded byte data of a movie segment
+	 * Stores the encoded byte data of a movie segment, either in memory, or as
+	 * a region of a file (when data is null).
+	 * 
+	 * The owner of a file region, if any, keeps the file open until release() is
+	 * called, once the segment is sent or dropped. A spooled segment owns its
+	 * whole file.
+	 * 
+	 */
+	public static record SegmentContent(String contentType, byte[] data, FileChannel file, long position, long length, Closeable owner) {
+
+		public SegmentContent(String contentType, byte[] data) {
+			this(contentType, data, null, 0, data.length, null);
+		}
+
+		public SegmentContent(String contentType, FileChannel file, long position, long length, Closeable owner) {
+			this(contentType, null, file, position, length, owner);
+		}
+
+		/**
+		 * @return a segment kept in the whole of the given file, which it owns
+		 */
+		public static SegmentContent spooled(String contentType, FileChannel file, long length) {
+			return new SegmentContent(contentType, null, file, 0, length, file);
+		}
+
+		/**
+		 * Releases the file region of the segment to its owner.
+		 */
+		public void release() {
+			if (owner != null)
+				try {
+					owner.close();
+				} catch (IOException x) {
+					x.printStackTrace();
+				}
+		}
+	}
+
+	/**
+	 * 
+	 * Stores the segments of a movie track as primitive offsets and lengths,
+	 * either in arrays on the heap, or in a memory-mapped manifest sidecar.
+	 * Segment records are only created when accessed.
+	 * 
+	 * Offsets and lengths are 64-bit, so tracks and segments may be larger than
+	 * 2 GB.
 	 * 
 	 */
-	public static record SegmentContent(String contentType, byte[] data) {
+	public static final class Segments extends AbstractList<Segment> implements RandomAccess {
+		private final LongBuffer offsets, lengths;
+
+		public Segments(long[] offsets, long[] lengths) {
+			this(LongBuffer.wrap(offsets), LongBuffer.wrap(lengths));
+		}
+
+		private Segments(LongBuffer offsets, LongBuffer lengths) {
+			if (offsets.limit() != lengths.limit())
+				throw new IllegalArgumentException("Mismatched offsets and lengths");
+			this.offsets = offsets;
+			this.lengths = lengths;
+		}
+
+		public long offset(int segment) {
+			return offsets.get(segment);
+		}
+
+		public long length(int segment) {
+			return lengths.get(segment);
+		}
+
+		@Override
+		public Segment get(int segment) {
+			return new Segment(offsets.get(segment), lengths.get(segment));
+		}
+
+		@Override
+		public int size() {
+			return offsets.limit();
+		}
 	}
 
 	/**
@@ -49,34 +140,180 @@ public class MovieManifest {
 	 * @return parsed manifest file
 	 */
 	public static Manifest parse(String manifest) {
+		return parse(manifest.getBytes(StandardCharsets.UTF_8));
+	}
 
-			try (var sc = new Scanner(manifest)) {
-				var movie = sc.nextLine();
-				var numTracks = Integer.valueOf(sc.nextLine());
-				var tracks = new ArrayList<Track>();
-				for (int t = 0; t < numTracks; t++) {
-					var filename = sc.nextLine();
-					var contentType = sc.nextLine();
-					var avgBandwidth = Integer.valueOf(sc.nextLine());
-					var duration = Integer.valueOf(sc.nextLine());
-					var numSegments = Integer.valueOf(sc.nextLine());
-
-					var segments = new ArrayList<Segment>();
-					for (var s = 0; s < numSegments; s++) {
-						var parts = sc.nextLine().split(" ");
-						int offset = Integer.valueOf(parts[0]);
-						int length = Integer.valueOf(parts[1]);
-						segments.add(new Segment(offset, length));
-					}
-					tracks.add(new Track(filename, contentType, avgBandwidth, duration, segments));					
+	/**
+	 * Parses a manifest file straight from its bytes, storing the segments of
+	 * each track in primitive arrays.
+	 * 
+	 * @param manifest - the contents of a manifest file
+	 * @return parsed manifest file, or null if it is malformed
+	 */
+	public static Manifest parse(byte[] manifest) {
+		try {
+			var in = new Parser(manifest);
+			var movie = in.line();
+			int numTracks = in.intLine();
+			var tracks = new ArrayList<Track>(numTracks);
+			for (int t = 0; t < numTracks; t++) {
+				var filename = in.line();
+				var contentType = in.line();
+				int avgBandwidth = in.intLine();
+				int duration = in.intLine();
+				int numSegments = in.intLine();
+
+				long[] offsets = new long[numSegments], lengths = new long[numSegments];
+				for (int s = 0; s < numSegments; s++) {
+					offsets[s] = in.nextLong();
+					lengths[s] = in.longLine();
 				}
-				return new Manifest(movie, tracks);
-			} catch( Exception x ) {
-				x.printStackTrace();
-				return null;
+				tracks.add(new Track(filename, contentType, avgBandwidth, duration, new Segments(offsets, lengths)));
+			}
+			return new Manifest(movie, tracks);
+		} catch (Exception x) {
+			x.printStackTrace();
+			return null;
+		}
+	}
+
+	/**
+	 * Reads the lines and numbers of a manifest, without intermediate strings
+	 * for the numbers.
+	 */
+	private static class Parser {
+		private final byte[] buf;
+		private int pos;
+
+		Parser(byte[] buf) {
+			this.buf = buf;
+		}
+
+		String line() {
+			if (pos >= buf.length)
+				throw new IllegalArgumentException("Unexpected end of manifest");
+			int start = pos, end;
+			while (pos < buf.length && buf[pos] != '\n')
+				pos++;
+			end = pos++;
+			if (end > start && buf[end - 1] == '\r')
+				end--;
+			return new String(buf, start, end - start, StandardCharsets.UTF_8);
+		}
+
+		long nextLong() {
+			while (pos < buf.length && (buf[pos] == ' ' || buf[pos] == '\t'))
+				pos++;
+			int start = pos;
+			long res = 0;
+			while (pos < buf.length && buf[pos] >= '0' && buf[pos] <= '9') {
+				if (res > (Long.MAX_VALUE - 9) / 10)
+					throw new IllegalArgumentException("Number too large at byte: " + start);
+				res = res * 10 + buf[pos++] - '0';
+			}
+			if (pos == start)
+				throw new IllegalArgumentException("Bad number at byte: " + start);
+			return res;
+		}
+
+		int intLine() {
+			long res = longLine();
+			if (res > Integer.MAX_VALUE)
+				throw new IllegalArgumentException("Number too large before byte: " + pos);
+			return (int) res;
+		}
+
+		// a number, ending its line
+		long longLine() {
+			long res = nextLong();
+			while (pos < buf.length && buf[pos] != '\n') {
+				if (buf[pos] > ' ')
+					throw new IllegalArgumentException("Unexpected character at byte: " + pos);
+				pos++;
+			}
+			pos++;
+			return res;
+		}
+	}
+
+	/**
+	 * Writes a manifest in the binary sidecar format, which can be
+	 * memory-mapped with map().
+	 * 
+	 * The sidecar starts with a header, with the movie name and the attributes
+	 * of each track, followed by the offsets and the lengths of the segments of
+	 * each track, as arrays of longs. The file is replaced atomically, so that it
+	 * is never mapped half written.
+	 */
+	public static void write(Manifest manifest, File file) throws IOException {
+		var header = new ByteArrayOutputStream();
+		try (var out = new DataOutputStream(header)) {
+			out.writeUTF(manifest.name());
+			out.writeInt(manifest.tracks().size());
+			for (var t : manifest.tracks()) {
+				out.writeUTF(t.filename());
+				out.writeUTF(t.contentType());
+				out.writeInt(t.avgBandwidth());
+				out.writeInt(t.segmentDuration());
+				out.writeInt(t.segments().size());
+			}
+		}
+		// the arrays start aligned to a long
+		while ((2 * Integer.BYTES + header.size()) % Long.BYTES != 0)
+			header.write(0);
+
+		var tmp = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+		try (var out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+			out.writeInt(SIDECAR_MAGIC);
+			out.writeInt(header.size());
+			header.writeTo(out);
+			for (var t : manifest.tracks()) {
+				for (var s : t.segments())
+					out.writeLong(s.offset());
+				for (var s : t.segments())
+					out.writeLong(s.length());
 			}
+		}
+		Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
 	}
 
+	/**
+	 * Memory-maps a manifest written with write(). Only the header is read; the
+	 * segments of the tracks are read from the mapped file as they are accessed.
+	 */
+	public static Manifest map(File file) throws IOException {
+		try (var channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			var buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			if (buf.getInt(0) != SIDECAR_MAGIC)
+				throw new IOException("Not a manifest sidecar: " + file);
+
+			byte[] header = new byte[buf.getInt(Integer.BYTES)];
+			buf.get(2 * Integer.BYTES, header);
+			var in = new DataInputStream(new ByteArrayInputStream(header));
+
+			var movie = in.readUTF();
+			int numTracks = in.readInt();
+			var tracks = new ArrayList<Track>(numTracks);
+			int pos = 2 * Integer.BYTES + header.length;
+			for (int t = 0; t < numTracks; t++) {
+				var filename = in.readUTF();
+				var contentType = in.readUTF();
+				int avgBandwidth = in.readInt();
+				int duration = in.readInt();
+				int numSegments = in.readInt();
+
+				int size = numSegments * Long.BYTES;
+				var offsets = buf.slice(pos, size).asLongBuffer();
+				var lengths = buf.slice(pos + size, size).asLongBuffer();
+				pos += 2 * size;
+				tracks.add(new Track(filename, contentType, avgBandwidth, duration, new Segments(offsets, lengths)));
+			}
+			return new Manifest(movie, tracks);
+		}
+	}
+
+	private static final int SIDECAR_MAGIC = 0x4d4d4632; // "MMF2", with 64-bit offsets and lengths
+
 	/**
 	 * 
 	 * @param args
@@ -0,0 +1,243 @@
+package proxy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import media.MovieManifest.SegmentContent;
+import proxy.server.Log;
+
+/**
+ * Disk tier of the segment cache, which keeps segment data off the Java heap
+ * and survives proxy restarts.
+ *
+ * Segments are appended to slab files of fixed size. Each slab has an index
+ * file, with the key, content type and position of each of its segments, which
+ * is read back when the proxy restarts. When the cache exceeds its budget, the
+ * oldest slab is dropped as a whole.
+ *
+ * Segments found here are returned as file regions, so that they can be sent
+ * to browsers with FileChannel.transferTo, without passing through the heap.
+ * Each such segment holds a lease on its slab, given back when the segment is
+ * released, and the channel of a dropped slab is only closed once its last
+ * lease is given back, so that transfers still in progress can complete.
+ *
+ * @author smduarte
+ *
+ */
+class DiskSegmentCache implements Closeable {
+
+	static final long SLAB_SIZE = 64 << 20;
+
+	private static final String SLAB_SUFFIX = ".slab", INDEX_SUFFIX = ".idx";
+
+	static record Entry(Slab slab, long position, long length, String contentType) {
+	}
+
+	class Slab {
+		final long id;
+		final File file;
+		final FileChannel channel;
+		final List<SegmentCache.Key> keys = new ArrayList<>();
+		DataOutputStream index;
+		long size;
+
+		// the segments of the slab not yet released, and whether the slab was dropped
+		private int leases;
+		private boolean dropped;
+
+		Slab(long id) throws IOException {
+			this.id = id;
+			this.file = new File(dir, id + SLAB_SUFFIX);
+			this.channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		}
+
+		File indexFile() {
+			return new File(dir, id + INDEX_SUFFIX);
+		}
+
+		synchronized boolean lease() {
+			if (dropped)
+				return false;
+			leases++;
+			return true;
+		}
+
+		synchronized void release() {
+			if (--leases == 0 && dropped)
+				closeChannel();
+		}
+
+		synchronized void drop() {
+			dropped = true;
+			if (leases == 0)
+				closeChannel();
+		}
+
+		private void closeChannel() {
+			try {
+				channel.close();
+			} catch (IOException x) {
+				x.printStackTrace();
+			}
+		}
+	}
+
+	private final File dir;
+	private final long maxSlabs;
+	private final Deque<Slab> slabs = new ArrayDeque<>();
+	private final Map<SegmentCache.Key, Entry> index = new ConcurrentHashMap<>();
+
+	/**
+	 * Opens the disk cache in the given directory, loading the segments left
+	 * there by a previous run.
+	 *
+	 * @param capacity - the budget of the cache in bytes, rounded up to whole slabs
+	 */
+	DiskSegmentCache(File dir, long capacity) throws IOException {
+		this.dir = dir;
+		this.maxSlabs = Math.max(1, (capacity + SLAB_SIZE - 1) / SLAB_SIZE);
+		dir.mkdirs();
+		load();
+	}
+
+	/**
+	 * @return the segment as a file region, or null if it is not in the cache;
+	 *         the segment must be released once sent or dropped
+	 */
+	SegmentContent get(SegmentCache.Key key) {
+		var e = index.get(key);
+		// the slab may have been dropped since the lookup
+		if (e == null || !e.slab.lease())
+			return null;
+		var released = new AtomicBoolean();
+		return new SegmentContent(e.contentType, e.slab.channel, e.position, e.length, () -> {
+			if (released.compareAndSet(false, true))
+				e.slab.release();
+		});
+	}
+
+	/**
+	 * Appends a segment held in memory to the current slab.
+	 */
+	synchronized void put(SegmentCache.Key key, SegmentContent segment) throws IOException {
+		if (segment.data() == null || index.containsKey(key) || segment.length() > SLAB_SIZE)
+			return;
+
+		var slab = slabs.peekLast();
+		if (slab == null || slab.index == null || slab.size + segment.length() > SLAB_SIZE)
+			slab = newSlab();
+
+		var buf = ByteBuffer.wrap(segment.data());
+		long position = slab.size;
+		while (buf.hasRemaining())
+			slab.channel.write(buf, position + buf.position());
+		slab.size += segment.length();
+
+		// the data is written before its index record, so a crash cannot index missing data
+		slab.index.writeUTF(key.url());
+		slab.index.writeLong(key.offset());
+		// segments are never larger than a slab, so their length fits an int
+		slab.index.writeInt((int) key.length());
+		slab.index.writeUTF(segment.contentType());
+		slab.index.writeLong(position);
+		slab.index.flush();
+
+		slab.keys.add(key);
+		index.put(key, new Entry(slab, position, segment.length(), segment.contentType()));
+	}
+
+	int segments() {
+		return index.size();
+	}
+
+	synchronized long size() {
+		long res = 0;
+		for (var s : slabs)
+			res += s.size;
+		return res;
+	}
+
+	private Slab newSlab() throws IOException {
+		var last = slabs.peekLast();
+		if (last != null && last.index != null)
+			last.index.close();
+
+		var slab = new Slab(last == null ? 0 : last.id + 1);
+		slab.channel.truncate(0);
+		slab.index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(slab.indexFile())));
+		slabs.add(slab);
+
+		while (slabs.size() > maxSlabs)
+			drop(slabs.poll());
+		return slab;
+	}
+
+	private void drop(Slab slab) {
+		for (var key : slab.keys)
+			index.remove(key);
+		slab.file.delete();
+		slab.indexFile().delete();
+		slab.drop();
+	}
+
+	private void load() throws IOException {
+		var files = dir.list((d, name) -> name.endsWith(SLAB_SUFFIX));
+		long[] ids = Arrays.stream(files).mapToLong(name -> Long.parseLong(name.substring(0, name.length() - SLAB_SUFFIX.length()))).sorted().toArray();
+
+		for (long id : ids) {
+			var slab = new Slab(id);
+			slab.size = slab.channel.size();
+			long indexed = 0;
+			if (slab.indexFile().exists())
+				try (var in = new DataInputStream(new BufferedInputStream(new FileInputStream(slab.indexFile())))) {
+					for (;;) {
+						var key = new SegmentCache.Key(in.readUTF(), in.readLong(), in.readInt());
+						var contentType = in.readUTF();
+						long position = in.readLong();
+						if (position + key.length() > slab.size)
+							break;
+						slab.keys.add(key);
+						index.put(key, new Entry(slab, position, key.length(), contentType));
+						indexed = position + key.length();
+					}
+				} catch (EOFException x) {
+					// a record cut short by a crash ends the index
+				}
+			slab.size = indexed;
+			slabs.add(slab);
+		}
+
+		// segments are only appended to a new slab, as the index of the last one may be incomplete
+		while (slabs.size() > maxSlabs)
+			drop(slabs.poll());
+		Log.info(String.format("Disk cache: %d segments, %d bytes in %s", index.size(), size(), dir));
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		for (var s : slabs) {
+			if (s.index != null)
+				s.index.close();
+			s.channel.close();
+		}
+	}
+}
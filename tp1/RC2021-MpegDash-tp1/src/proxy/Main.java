@@ -1,63 +1,231 @@
 package proxy;
 
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
 import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
 
 import http.HttpClient;
-import http.HttpClient10;
-import media.MovieManifest;
+import http.HttpClient11;
 import media.MovieManifest.Manifest;
 import media.MovieManifest.SegmentContent;
+import media.MovieManifest.Track;
+import proxy.abr.AbrStrategy;
+import proxy.server.Log;
+import proxy.server.PlayerStats;
 import proxy.server.ProxyServer;
+import proxy.server.SegmentQueue;
 
 public class Main {
 	static final String MEDIA_SERVER_BASE_URL = "http://localhost:9999";
+	static final String MANIFEST_FILENAME = "manifest.txt";
+	static final String DISK_CACHE_DIR = "proxy-cache";
+	// the time a manifest is served to new players without revalidation
+	static final long MANIFEST_MAX_AGE = 30_000;
 
+	// the player queue holds at least the init segment of a new track and its first segment
+	static final int MIN_QUEUE_SEGMENTS = 2;
+
+	/**
+	 * Settings of the client-side handlers
+	 *
+	 * @param abr           - the name of the ABR strategy
+	 * @param bufferSeconds - the capacity of the player queue in seconds of media, or 0 for the default
+	 * @param prefetch      - the maximum number of segment fetches in flight
+	 * @param cache         - the segment cache shared by all players
+	 * @param manifests     - the manifest cache shared by all players
+	 */
+	static record Config(String abr, int bufferSeconds, int prefetch, SegmentCache cache, ManifestCache manifests) {
+	}
+
+	/**
+	 * Usage: [BLOCKING | THREADS | VIRTUAL | NIO] [ewma | harmonic | bola | fixed:track] [bufferSeconds] [prefetch] [cacheMB] [diskCacheMB]
+	 *
+	 * bufferSeconds sets the capacity of the player queues in seconds of media.
+	 * By default, they hold 2 segments.
+	 *
+	 * prefetch sets how many segments can be fetched at the same time. By
+	 * default, 3.
+	 *
+	 * cacheMB sets the budget of the segment cache shared by all players. By
+	 * default, 128 MB.
+	 *
+	 * diskCacheMB sets the budget of the disk tier of the segment cache, kept in
+	 * the proxy-cache directory. By default, 0, with no disk tier. With a disk
+	 * tier, the manifests of movies are also kept there, in binary form, and
+	 * memory-mapped and revalidated when the proxy restarts.
+	 */
 	public static void main(String[] args) throws Exception {
 
-		ProxyServer.start( (movie, queue) -> new DashPlaybackHandler(movie, queue) );
-		
+		var mode = args.length > 0 ? ProxyServer.Mode.valueOf(args[0].toUpperCase()) : ProxyServer.Mode.BLOCKING;
+		var abr = args.length > 1 ? args[1] : "ewma";
+		int bufferSeconds = args.length > 2 ? Integer.parseInt(args[2]) : 0;
+		int prefetch = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+		long cacheMB = args.length > 4 ? Long.parseLong(args[4]) : 128;
+		long diskCacheMB = args.length > 5 ? Long.parseLong(args[5]) : 0;
+
+		var disk = diskCacheMB > 0 ? new DiskSegmentCache(new File(DISK_CACHE_DIR), diskCacheMB << 20) : null;
+		var manifests = new ManifestCache(new HttpClient11(), MEDIA_SERVER_BASE_URL, MANIFEST_FILENAME, MANIFEST_MAX_AGE, disk != null ? new File(DISK_CACHE_DIR) : null);
+		var config = new Config(abr, bufferSeconds, prefetch, new SegmentCache(cacheMB << 20, disk), manifests);
+		ProxyServer.start( mode, (movie, queue) -> new DashPlaybackHandler(movie, queue, config) );
+
 	}
 	/**
-	 * TODO TODO TODO TODO
-	 * 
 	 * Class that implements the client-side logic.
-	 * 
+	 *
 	 * Feeds the player queue with movie segment data fetched
 	 * from the HTTP server.
-	 * 
-	 * The fetch algorithm should prioritize:
+	 *
+	 * The fetch algorithm prioritizes:
 	 * 1) avoid stalling the browser player by allowing the queue to go empty
 	 * 2) if network conditions allow, retrieve segments from higher quality tracks
+	 *
+	 * The track of each segment is chosen by a pluggable ABR strategy. Several
+	 * segments are fetched ahead at the same time, so that a slow segment does
+	 * not hold back the ones after it.
 	 */
 	static class DashPlaybackHandler implements Runnable  {
-		
+
 		final String movie;
-		final Manifest manifest;
+		Manifest manifest;
 		final BlockingQueue<SegmentContent> queue;
+		final AbrStrategy abr;
+		final Config config;
+		final PlayerStats stats;
 
 		final HttpClient http;
-		
-		DashPlaybackHandler( String movie, BlockingQueue<SegmentContent> queue) {
+
+		DashPlaybackHandler( String movie, BlockingQueue<SegmentContent> queue, Config config) {
 			this.movie = movie;
 			this.queue = queue;
-			
-			this.http = new HttpClient10();
-			
-			
-			this.manifest = null; //TODO
+			this.config = config;
+			this.abr = AbrStrategy.forName(config.abr());
+			this.stats = queue instanceof SegmentQueue q ? q.stats() : new PlayerStats("", movie);
+
+			this.http = new HttpClient11();
 		}
-		
+
 		/**
-		 * Runs automatically in a dedicated thread...
-		 * 
+		 * Runs automatically in a dedicated (possibly virtual) thread...
+		 *
 		 * Needs to feed the queue with segment data fast enough to
 		 * avoid stalling the browser player
-		 * 
+		 *
 		 * Upon reaching the end of stream, the queue should
 		 * be fed with a zero-length data segment
+		 *
+		 * The manifest is only loaded here, as it may take a round trip to the
+		 * media server, and the handler is created by the server thread.
 		 */
 		public void run() {
-			// TODO
+			String contentType = "video/mp4";
+			Prefetcher prefetcher = null;
+			try {
+				manifest = config.manifests().get(movie);
+
+				if (config.bufferSeconds() > 0 && manifest != null && queue instanceof SegmentQueue q) {
+					int duration = manifest.tracks().get(0).segmentDuration();
+					q.setCapacity(Math.max(MIN_QUEUE_SEGMENTS, (config.bufferSeconds() * 1000 + duration - 1) / duration));
+				}
+
+				if (manifest == null) {
+					Log.warn("Failed to get manifest for: " + movie);
+					queue.put(new SegmentContent(contentType, new byte[0]));
+					return;
+				}
+				var tracks = manifest.tracks();
+				int numSegments = Integer.MAX_VALUE;
+				for (var t : tracks)
+					numSegments = Math.min(numSegments, t.segments().size());
+
+				prefetcher = new Prefetcher(http, config.cache(), MEDIA_SERVER_BASE_URL + "/" + movie, tracks, config.prefetch());
+
+				int current = -1, scheduled = -1, switches = 0, delivered = 0, reissued = 0;
+				long bits = 0, lastEnd = 0;
+				for (int s = 1, next = 1; s < numSegments; s++) {
+
+					// keep the pipeline full, choosing the track of each new fetch with the latest estimates
+					while (next < numSegments && !prefetcher.isFull()) {
+						int duration = tracks.get(Math.max(current, 0)).segmentDuration();
+						long bufferMs = (long) queue.size() * duration;
+						long capacityMs = (long) (queue.size() + queue.remainingCapacity()) * duration;
+
+						int track = abr.select(tracks, scheduled, bufferMs, capacityMs);
+						reissued += prefetcher.downgrade(track);
+						prefetcher.fetch(next++, track);
+						scheduled = track;
+					}
+
+					var f = prefetcher.take();
+					var segment = f.data.get();
+
+					// with fetches overlapping, the throughput is measured between completions
+					if (f.fetched) {
+						long nanos = f.endNanos - Math.max(f.startNanos, lastEnd);
+						abr.downloaded(segment.length(), nanos);
+						stats.downloaded(segment.length(), nanos);
+						lastEnd = Math.max(lastEnd, f.endNanos);
+					}
+					stats.segment(f.track, !f.fetched);
+
+					var track = tracks.get(f.track);
+					contentType = track.contentType();
+
+					// switching tracks requires the initialization segment of the new track first
+					if (f.track != current) {
+						var init = fetch(track, 0);
+						if (init == null)
+							break;
+						queue.put(init);
+						switches += current < 0 ? 0 : 1;
+						current = f.track;
+					}
+					queue.put(segment);
+					bits += track.avgBandwidth();
+					delivered++;
+				}
+				long meanBitrate = bits / Math.max(1, delivered) / 1000;
+				int n = delivered, s = switches, r = reissued;
+				Log.info(() -> String.format("%s: %d segments, mean bitrate: %d kbit/s, switches: %d, reissued: %d", movie, n, meanBitrate, s, r));
+				Log.info(() -> "segment cache: " + config.cache());
+				Log.info(() -> "manifest cache: " + config.manifests());
+				queue.put(new SegmentContent(contentType, new byte[0]));
+			} catch (InterruptedException x) {
+				// the player expired, and was closed by the proxy
+				Log.debug(() -> movie + ": playback cancelled");
+			} catch (ExecutionException x) {
+				Log.error(movie + ": playback failed", x.getCause());
+				queue.offer(new SegmentContent(contentType, new byte[0]));
+			} finally {
+				if (prefetcher != null)
+					prefetcher.close();
+				if (http instanceof Closeable c)
+					close(c);
+			}
+		}
+
+		private SegmentContent fetch(Track track, int segment) {
+			var seg = track.segments().get(segment);
+			var url = String.format("%s/%s/%s", MEDIA_SERVER_BASE_URL, movie, track.filename());
+			try {
+				return config.cache().get(new SegmentCache.Key(url, seg.offset(), seg.length()), () -> {
+					var data = http.doGetRange(url, seg.offset(), seg.offset() + seg.length() - 1L);
+					if (data == null)
+						throw new IOException(String.format("Failed to get segment %d of: %s", segment, url));
+					return new SegmentContent(track.contentType(), data);
+				});
+			} catch (IOException x) {
+				Log.error(movie + ": segment fetch failed", x);
+				return null;
+			}
+		}
+
+		private static void close(Closeable c) {
+			try {
+				c.close();
+			} catch (IOException x) {
+			}
 		}
 	}
 }
@@ -0,0 +1,166 @@
+package proxy;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import http.HttpClient;
+import media.MovieManifest;
+import media.MovieManifest.Manifest;
+
+/**
+ * Parsed manifests shared by all the players of the proxy, keyed by movie.
+ *
+ * A manifest validated within the last maxAge milliseconds is served as is.
+ * Older ones are revalidated against the media server, with If-Modified-Since
+ * and If-None-Match, and only fetched and parsed again if they changed.
+ *
+ * Concurrent starts of the same movie are served by a single fetch in flight.
+ *
+ * Optionally, manifests are also kept as binary sidecars in a directory, with
+ * the Last-Modified time of the manifest as their modification time, so that
+ * after a restart they are mapped and revalidated instead of fetched. Only
+ * manifests served with a Last-Modified time are kept.
+ *
+ * @author smduarte
+ *
+ */
+class ManifestCache {
+
+	static final String SIDECAR_SUFFIX = ".manifest";
+
+	private static final DateTimeFormatter HTTP_DATE = DateTimeFormatter.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+	static record Entry(Manifest manifest, String lastModified, String etag, long validated) {
+	}
+
+	private final HttpClient http;
+	private final String baseUrl;
+	private final String filename;
+	private final long maxAge;
+	private final File dir;
+
+	private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, CompletableFuture<Entry>> loading = new ConcurrentHashMap<>();
+
+	final LongAdder hits = new LongAdder(), revalidated = new LongAdder(), misses = new LongAdder(), coalesced = new LongAdder();
+
+	/**
+	 * @param baseUrl  - the url of the media server, to which movie names are appended
+	 * @param filename - the filename of the manifest of each movie
+	 * @param maxAge   - the time a manifest is served without revalidation, in ms
+	 * @param dir      - the directory of the binary sidecars, or null
+	 */
+	ManifestCache(HttpClient http, String baseUrl, String filename, long maxAge, File dir) {
+		this.http = http;
+		this.baseUrl = baseUrl;
+		this.filename = filename;
+		this.maxAge = maxAge;
+		this.dir = dir;
+	}
+
+	/**
+	 * @return the manifest of the given movie, or null if it could not be fetched
+	 */
+	Manifest get(String movie) {
+		var cached = entries.get(movie);
+		if (cached != null && System.currentTimeMillis() - cached.validated < maxAge) {
+			hits.increment();
+			return cached.manifest;
+		}
+
+		var mine = new CompletableFuture<Entry>();
+		var pending = loading.putIfAbsent(movie, mine);
+		if (pending != null) {
+			coalesced.increment();
+			try {
+				var res = pending.join();
+				return res == null ? null : res.manifest;
+			} catch (CompletionException x) {
+				// the load it waited for failed, and that failure is reported by its own caller
+				var stale = entries.get(movie);
+				return stale == null ? null : stale.manifest;
+			}
+		}
+		try {
+			var res = load(movie, entries.get(movie));
+			if (res != null)
+				entries.put(movie, res);
+			mine.complete(res);
+			return res == null ? null : res.manifest;
+		} catch (RuntimeException x) {
+			mine.completeExceptionally(x);
+			throw x;
+		} finally {
+			loading.remove(movie, mine);
+		}
+	}
+
+	private Entry load(String movie, Entry cached) {
+		var sidecar = dir == null ? null : new File(dir, movie + SIDECAR_SUFFIX);
+		if (cached == null && sidecar != null)
+			cached = map(sidecar);
+
+		var reply = cached == null ? http.doGetConditional(url(movie), null, null) : http.doGetConditional(url(movie), cached.lastModified, cached.etag);
+		// with the media server unreachable, a cached manifest is still better than none
+		if (reply == null)
+			return cached;
+
+		long now = System.currentTimeMillis();
+		if (reply.body() == null) {
+			if (cached == null)
+				return null;
+			revalidated.increment();
+			return new Entry(cached.manifest, or(reply.lastModified(), cached.lastModified), or(reply.etag(), cached.etag), now);
+		}
+
+		misses.increment();
+		var manifest = MovieManifest.parse(reply.body());
+		if (manifest == null)
+			return null;
+		if (sidecar != null && reply.lastModified() != null)
+			write(sidecar, manifest, reply.lastModified());
+		return new Entry(manifest, reply.lastModified(), reply.etag(), now);
+	}
+
+	private String url(String movie) {
+		return String.format("%s/%s/%s", baseUrl, movie, filename);
+	}
+
+	// a sidecar left by a previous run is revalidated before it is served
+	private static Entry map(File sidecar) {
+		try {
+			if (sidecar.exists())
+				return new Entry(MovieManifest.map(sidecar), HTTP_DATE.format(Instant.ofEpochMilli(sidecar.lastModified())), null, 0);
+		} catch (IOException x) {
+			x.printStackTrace();
+		}
+		return null;
+	}
+
+	private static void write(File sidecar, Manifest manifest, String lastModified) {
+		try {
+			MovieManifest.write(manifest, sidecar);
+			sidecar.setLastModified(ZonedDateTime.parse(lastModified, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli());
+		} catch (Exception x) {
+			x.printStackTrace();
+		}
+	}
+
+	private static String or(String value, String otherwise) {
+		return value != null ? value : otherwise;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("hits: %d, revalidated: %d, misses: %d, coalesced: %d", hits.sum(), revalidated.sum(), misses.sum(), coalesced.sum());
+	}
+}
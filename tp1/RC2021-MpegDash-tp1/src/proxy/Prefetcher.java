@@ -0,0 +1,217 @@
+package proxy;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import http.HttpClient;
+import media.MovieManifest.SegmentContent;
+import media.MovieManifest.Track;
+import proxy.server.ProxyServer;
+
+/**
+ * Fetches the segments of a movie ahead of playback, keeping several fetches
+ * in flight at the same time, each over its own connection.
+ *
+ * Fetches may complete in any order, but take() returns them in the order they
+ * were requested, so that segments reach the player queue in order.
+ *
+ * Fetches are read in chunks, so that one in progress can be cancelled and
+ * reissued from a lower track, when the ABR decision drops.
+ *
+ * Segments are looked up in the proxy-wide segment cache first. Only fetches
+ * that went to the media server are measured for throughput estimation.
+ *
+ * Segments larger than SPOOL_THRESHOLD are never held in memory: they bypass
+ * the cache and are streamed to a temporary spool file, which is deleted
+ * once the segment is released.
+ *
+ * @author smduarte
+ *
+ */
+class Prefetcher {
+
+	private static final int CHUNK_SIZE = 16 * 1024;
+	static final long SPOOL_THRESHOLD = 64 << 20;
+
+	private final HttpClient http;
+	private final SegmentCache cache;
+	private final String baseUrl;
+	private final List<Track> tracks;
+	private final int depth;
+
+	private final ExecutorService executor = ProxyServer.fetchExecutor();
+	private final Deque<Fetch> inFlight = new ArrayDeque<>();
+
+	/**
+	 * The fetch of a segment of a track. Start and end times are taken by the
+	 * fetching thread.
+	 */
+	class Fetch {
+		final int segment, track;
+		final long length;
+		final Future<SegmentContent> data;
+
+		volatile boolean cancelled, fetched;
+		volatile long received;
+		volatile long startNanos, endNanos;
+
+		Fetch(int segment, int track) {
+			this.segment = segment;
+			this.track = track;
+			this.length = tracks.get(track).segments().get(segment).length();
+			this.data = executor.submit(this::download);
+		}
+
+		private SegmentContent download() throws IOException {
+			startNanos = System.nanoTime();
+			var t = tracks.get(track);
+			var seg = t.segments().get(segment);
+			var url = String.format("%s/%s", baseUrl, t.filename());
+			SegmentContent res;
+			if (length > SPOOL_THRESHOLD)
+				res = fetch(url, t.contentType(), seg.offset());
+			else
+				res = cache.get(new SegmentCache.Key(url, seg.offset(), seg.length()), () -> fetch(url, t.contentType(), seg.offset()));
+			endNanos = System.nanoTime();
+			return res;
+		}
+
+		private SegmentContent fetch(String url, String contentType, long offset) throws IOException {
+			fetched = true;
+			try (var in = http.doGetRangeStream(url, offset, offset + length - 1L)) {
+				if (in == null)
+					throw new IOException(String.format("Failed to get segment %d of: %s", segment, url));
+
+				// a cancelled fetch closes the stream early, which also closes the connection
+				if (length > SPOOL_THRESHOLD)
+					return spool(in, contentType, url);
+
+				byte[] res = new byte[(int) length];
+				int n;
+				while (received < res.length && !cancelled && (n = in.read(res, (int) received, (int) Math.min(CHUNK_SIZE, res.length - received))) > 0)
+					received += n;
+
+				if (cancelled)
+					return null;
+				if (received < res.length)
+					throw new IOException(String.format("Short segment %d of: %s", segment, url));
+				return new SegmentContent(contentType, res);
+			}
+		}
+
+		private SegmentContent spool(InputStream in, String contentType, String url) throws IOException {
+			var file = FileChannel.open(Files.createTempFile("segment", ".spool"), StandardOpenOption.READ, StandardOpenOption.WRITE,
+					StandardOpenOption.DELETE_ON_CLOSE);
+			boolean done = false;
+			try {
+				var buf = ByteBuffer.allocate(CHUNK_SIZE);
+				int n;
+				while (received < length && !cancelled && (n = in.read(buf.array(), 0, (int) Math.min(CHUNK_SIZE, length - received))) > 0) {
+					buf.clear().limit(n);
+					while (buf.hasRemaining())
+						file.write(buf);
+					received += n;
+				}
+				done = received == length && !cancelled;
+			} finally {
+				if (!done)
+					file.close();
+			}
+			if (cancelled)
+				return null;
+			if (!done)
+				throw new IOException(String.format("Short segment %d of: %s", segment, url));
+			return SegmentContent.spooled(contentType, file, length);
+		}
+
+		void cancel() {
+			cancelled = true;
+			data.cancel(false);
+		}
+	}
+
+	/**
+	 * @param baseUrl - the url of the movie, to which track filenames are appended
+	 * @param depth   - the maximum number of fetches in flight
+	 */
+	Prefetcher(HttpClient http, SegmentCache cache, String baseUrl, List<Track> tracks, int depth) {
+		this.http = http;
+		this.cache = cache;
+		this.baseUrl = baseUrl;
+		this.tracks = tracks;
+		this.depth = Math.max(1, depth);
+	}
+
+	boolean isFull() {
+		return inFlight.size() >= depth;
+	}
+
+	/**
+	 * Starts fetching the given segment of the given track.
+	 */
+	void fetch(int segment, int track) {
+		inFlight.add(new Fetch(segment, track));
+	}
+
+	/**
+	 * Waits for the oldest fetch to complete.
+	 *
+	 * @return the completed fetch, or null if there is none in flight
+	 */
+	Fetch take() throws InterruptedException, ExecutionException {
+		var f = inFlight.poll();
+		if (f != null)
+			f.data.get();
+		return f;
+	}
+
+	/**
+	 * Reissues, from the given track, the fetches in flight of tracks with a
+	 * higher avgBandwidth. Fetches that are half done are kept, as reissuing them
+	 * would waste more than it saves.
+	 *
+	 * @return the number of fetches reissued
+	 */
+	int downgrade(int track) {
+		int res = 0, bandwidth = tracks.get(track).avgBandwidth();
+		for (int i = 0; i < inFlight.size(); i++) {
+			var f = inFlight.poll();
+			if (!f.data.isDone() && tracks.get(f.track).avgBandwidth() > bandwidth && f.received < f.length / 2) {
+				f.cancel();
+				f = new Fetch(f.segment, track);
+				res++;
+			}
+			inFlight.add(f);
+		}
+		return res;
+	}
+
+	/**
+	 * Cancels the fetches in flight and releases the fetching threads, and the
+	 * spool files of fetches that were already done.
+	 */
+	void close() {
+		for (var f : inFlight) {
+			f.cancel();
+			if (f.data.isDone() && !f.data.isCancelled())
+				try {
+					var res = f.data.get();
+					if (res != null)
+						res.release();
+				} catch (Exception x) {
+				}
+		}
+		inFlight.clear();
+		executor.shutdown();
+	}
+}
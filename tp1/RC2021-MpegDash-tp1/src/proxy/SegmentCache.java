@@ -0,0 +1,168 @@
+package proxy;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+import media.MovieManifest.SegmentContent;
+
+/**
+ * Segment data shared by all the players of the proxy.
+ *
+ * Segments are keyed by the url of their track, their offset and their length.
+ * The cache holds up to a budget of bytes, evicting the least recently used
+ * segments first.
+ *
+ * Concurrent misses of the same segment are coalesced: only the first one
+ * fetches it from the media server, the others wait for its result.
+ *
+ * Optionally, segments are also kept in a disk tier, which is looked up after
+ * the memory tier. Segments found there are not brought back to memory, but
+ * returned as file regions.
+ *
+ * @author smduarte
+ *
+ */
+class SegmentCache {
+
+	static record Key(String url, long offset, long length) {
+	}
+
+	static interface Loader {
+		/**
+		 * @return the segment, in memory, or null if the fetch was cancelled
+		 */
+		SegmentContent load() throws IOException;
+	}
+
+	private final long capacity;
+	private long size;
+	private final LinkedHashMap<Key, SegmentContent> lru = new LinkedHashMap<>(16, 0.75f, true);
+	private final ConcurrentHashMap<Key, CompletableFuture<SegmentContent>> loading = new ConcurrentHashMap<>();
+	private final DiskSegmentCache disk;
+
+	final LongAdder hits = new LongAdder(), diskHits = new LongAdder(), misses = new LongAdder(), coalesced = new LongAdder();
+	final LongAdder evictions = new LongAdder(), evictedBytes = new LongAdder();
+
+	/**
+	 * @param capacity - the budget of the memory tier in bytes, 0 to only coalesce misses
+	 * @param disk     - the disk tier, or null
+	 */
+	SegmentCache(long capacity, DiskSegmentCache disk) {
+		this.capacity = capacity;
+		this.disk = disk;
+	}
+
+	/**
+	 * Gets a segment from the cache, or loads it on a miss.
+	 *
+	 * @return the segment, or null if the loader was cancelled
+	 */
+	SegmentContent get(Key key, Loader loader) throws IOException {
+		for (;;) {
+			var data = lookup(key);
+			if (data != null)
+				return data;
+
+			var mine = new CompletableFuture<SegmentContent>();
+			var pending = loading.putIfAbsent(key, mine);
+			if (pending != null) {
+				coalesced.increment();
+				data = await(pending);
+				// the fetch it waited for was cancelled, or found the segment loaded already, try again
+				if (data == null)
+					continue;
+				return data;
+			}
+
+			// it may have been loaded between the lookup and the putIfAbsent; the
+			// waiters look it up again, as a segment from disk is released by each user
+			if ((data = lookup(key)) != null) {
+				loading.remove(key, mine);
+				mine.complete(null);
+				return data;
+			}
+
+			misses.increment();
+			try {
+				data = loader.load();
+				if (data != null) {
+					put(key, data);
+					putOnDisk(key, data);
+				}
+				mine.complete(data);
+				return data;
+			} catch (IOException | RuntimeException x) {
+				mine.completeExceptionally(x);
+				throw x;
+			} finally {
+				loading.remove(key, mine);
+			}
+		}
+	}
+
+	private SegmentContent lookup(Key key) {
+		SegmentContent data;
+		synchronized (this) {
+			data = lru.get(key);
+		}
+		if (data != null)
+			hits.increment();
+		else if (disk != null && (data = disk.get(key)) != null)
+			diskHits.increment();
+		return data;
+	}
+
+	// a failure to write to disk does not fail the fetch
+	private void putOnDisk(Key key, SegmentContent data) {
+		try {
+			if (disk != null)
+				disk.put(key, data);
+		} catch (IOException x) {
+			x.printStackTrace();
+		}
+	}
+
+	private synchronized void put(Key key, SegmentContent data) {
+		if (data.length() > capacity || lru.containsKey(key))
+			return;
+		lru.put(key, data);
+		size += data.length();
+
+		var it = lru.values().iterator();
+		while (size > capacity && it.hasNext()) {
+			var evicted = it.next();
+			it.remove();
+			size -= evicted.length();
+			evictions.increment();
+			evictedBytes.add(evicted.length());
+		}
+	}
+
+	private static SegmentContent await(CompletableFuture<SegmentContent> pending) throws IOException {
+		try {
+			return pending.get();
+		} catch (InterruptedException x) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		} catch (ExecutionException x) {
+			throw x.getCause() instanceof IOException iox ? iox : new IOException(x.getCause());
+		}
+	}
+
+	synchronized long size() {
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		long h = hits.sum(), d = diskHits.sum(), m = misses.sum(), c = coalesced.sum();
+		var res = String.format("hits: %d, disk hits: %d, misses: %d, coalesced: %d, hit ratio: %.1f%%, evictions: %d (%d bytes), size: %d / %d bytes",
+				h, d, m, c, 100.0 * (h + d + c) / Math.max(1, h + d + m + c), evictions.sum(), evictedBytes.sum(), size(), capacity);
+		return disk == null ? res : res + String.format(", disk: %d segments, %d bytes", disk.segments(), disk.size());
+	}
+}
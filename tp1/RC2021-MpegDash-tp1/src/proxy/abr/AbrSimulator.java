@@ -0,0 +1,216 @@
+package proxy.abr;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import media.MovieManifest.Segment;
+import media.MovieManifest.Track;
+
+/**
+ * Compares ABR strategies by simulating the playback of a movie over a
+ * bandwidth trace.
+ *
+ * The simulation follows DashPlaybackHandler: segments are downloaded one at a
+ * time, into a player queue of bounded capacity, from which the browser player
+ * consumes one segment every segmentDuration. A stall happens when the player
+ * finishes a segment and the queue is empty. Playback starts when the first
+ * segment arrives.
+ *
+ * All strategies see the same traces and segment sizes, for the same seed.
+ *
+ * Usage: [bufferSeconds] [seed] [strategies...]
+ *
+ * @author smduarte
+ *
+ */
+public class AbrSimulator {
+
+	static final int[] BITRATES = { 400_000, 800_000, 1_500_000, 3_000_000, 6_000_000 };
+	static final int SEGMENT_DURATION = 2000;
+	static final int SEGMENTS = 150;
+	static final int INIT_SEGMENT_SIZE = 1237;
+	static final double REQUEST_LATENCY_MS = 20;
+
+	static final int TRACE_SECONDS = 600;
+
+	public static record Result(String strategy, int stalls, double stallSeconds, double meanBitrate, int switches) {
+		public String toString() {
+			return String.format("%-12s stalls: %3d (%6.1f s)   mean bitrate: %6.0f kbit/s   switches: %3d", strategy, stalls, stallSeconds, meanBitrate / 1000, switches);
+		}
+	}
+
+	public static void main(String[] args) {
+		int bufferSeconds = args.length > 0 ? Integer.parseInt(args[0]) : 4;
+		int capacity = Math.max(2, (bufferSeconds * 1000 + SEGMENT_DURATION - 1) / SEGMENT_DURATION);
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : 1L;
+		List<String> strategies = new ArrayList<>();
+		for (int i = 2; i < args.length; i++)
+			strategies.add(args[i]);
+		if (strategies.isEmpty())
+			strategies = List.of("fixed:0", "fixed:2", "ewma", "harmonic", "bola");
+
+		var tracks = tracks(new Random(seed));
+		System.out.printf("queue capacity: %d segments of %d ms\n", capacity, SEGMENT_DURATION);
+		for (var trace : List.of("steady", "wifi", "drops")) {
+			System.out.println("\ntrace: " + trace);
+			double[] bandwidth = trace(trace, new Random(seed));
+			for (var name : strategies)
+				System.out.println(simulate(AbrStrategy.forName(name), name, tracks, bandwidth, capacity));
+		}
+	}
+
+	/**
+	 * Simulates the playback of all segments of the given tracks.
+	 *
+	 * @param bandwidth - the available bandwidth in bits/s, for each second
+	 * @param capacity  - the capacity of the player queue, in segments
+	 */
+	public static Result simulate(AbrStrategy abr, String name, List<Track> tracks, double[] bandwidth, int capacity) {
+		var player = new PlayerModel(capacity, SEGMENT_DURATION);
+		double now = 0, bits = 0;
+		int current = -1, switches = 0;
+		int numSegments = tracks.get(0).segments().size();
+
+		for (int s = 1; s < numSegments; s++) {
+			now = player.waitForSpace(now);
+
+			int next = abr.select(tracks, current, player.bufferMs(now), (long) capacity * SEGMENT_DURATION);
+			if (next != current) {
+				now = transfer(bandwidth, now, tracks.get(next).segments().get(0).length());
+				switches += current < 0 ? 0 : 1;
+				current = next;
+			}
+			var track = tracks.get(current);
+			long length = track.segments().get(s).length();
+			double start = now;
+			now = transfer(bandwidth, now, length);
+			abr.downloaded(length, (long) ((now - start) * 1e6));
+
+			player.arrived(now);
+			bits += track.avgBandwidth();
+		}
+		player.finish();
+		return new Result(name, player.stalls, player.stalledMs / 1000, bits / (numSegments - 1), switches);
+	}
+
+	/**
+	 * @return the time (ms) when a request sent at the given time completes
+	 */
+	static double transfer(double[] bandwidth, double now, long bytes) {
+		double t = now + REQUEST_LATENCY_MS, bits = bytes * 8.0;
+		for (;;) {
+			int sec = (int) (t / 1000);
+			double bps = bandwidth[sec % bandwidth.length], end = (sec + 1) * 1000.0;
+			double available = bps * (end - t) / 1000;
+			if (available >= bits)
+				return t + bits / bps * 1000;
+			bits -= available;
+			t = end;
+		}
+	}
+
+	/**
+	 * Models the player queue and the browser consuming it.
+	 */
+	static class PlayerModel {
+		final int capacity;
+		final double segmentMs;
+
+		int queued, stalls;
+		boolean started, stalled;
+		double playEnd, stalledMs;
+
+		PlayerModel(int capacity, double segmentMs) {
+			this.capacity = capacity;
+			this.segmentMs = segmentMs;
+		}
+
+		// plays the queued segments up to the given time
+		void advance(double now) {
+			while (started && !stalled && playEnd <= now) {
+				if (queued > 0) {
+					queued--;
+					playEnd += segmentMs;
+				} else {
+					stalled = true;
+					stalls++;
+				}
+			}
+		}
+
+		double waitForSpace(double now) {
+			advance(now);
+			if (queued >= capacity) {
+				now = Math.max(now, playEnd);
+				advance(now);
+			}
+			return now;
+		}
+
+		long bufferMs(double now) {
+			advance(now);
+			return (long) (queued * segmentMs);
+		}
+
+		void arrived(double now) {
+			advance(now);
+			if (!started || stalled) {
+				if (stalled)
+					stalledMs += now - playEnd;
+				started = true;
+				stalled = false;
+				playEnd = now + segmentMs;
+			} else
+				queued++;
+		}
+
+		// the last segment was delivered, so running out of segments is not a stall
+		void finish() {
+			queued = Integer.MAX_VALUE;
+		}
+	}
+
+	static List<Track> tracks(Random rnd) {
+		var tracks = new ArrayList<Track>();
+		for (int t = 0; t < BITRATES.length; t++) {
+			var segments = new ArrayList<Segment>();
+			int offset = 0;
+			segments.add(new Segment(offset, INIT_SEGMENT_SIZE));
+			offset += INIT_SEGMENT_SIZE;
+			for (int s = 1; s < SEGMENTS; s++) {
+				// segments vary in size around the average bitrate
+				int length = (int) (BITRATES[t] / 8.0 * SEGMENT_DURATION / 1000 * (0.7 + 0.6 * rnd.nextDouble()));
+				segments.add(new Segment(offset, length));
+				offset += length;
+			}
+			tracks.add(new Track("movie-" + (t + 1) + ".mp4", "video/mp4", BITRATES[t], SEGMENT_DURATION, segments));
+		}
+		return tracks;
+	}
+
+	/**
+	 * @return the available bandwidth in bits/s, for each second of the trace
+	 */
+	static double[] trace(String name, Random rnd) {
+		double[] res = new double[TRACE_SECONDS];
+		for (int i = 0; i < res.length; i++)
+			switch (name) {
+			case "steady":
+				res[i] = 3_500_000;
+				break;
+			case "wifi":
+				// noisy, with a slowly varying mean
+				double mean = 3_000_000 + 2_000_000 * Math.sin(i / 30.0);
+				res[i] = Math.max(200_000, mean * Math.exp(0.5 * rnd.nextGaussian()));
+				break;
+			case "drops":
+				// good, but with a 10 second drop every 40 seconds
+				res[i] = i % 40 < 30 ? 5_000_000 : 600_000;
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown trace: " + name);
+			}
+		return res;
+	}
+}
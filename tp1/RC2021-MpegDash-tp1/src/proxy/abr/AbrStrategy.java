@@ -0,0 +1,75 @@
+package proxy.abr;
+
+import java.util.List;
+
+import media.MovieManifest.Track;
+
+/**
+ * Adaptive bitrate (ABR) strategy: decides from which track of a movie the
+ * next segment should be fetched.
+ *
+ * Strategies keep state across the segments of a movie, so each playback
+ * handler needs its own instance.
+ *
+ * @author smduarte
+ *
+ */
+public interface AbrStrategy {
+
+	/**
+	 * Records the download of a segment, so that the strategy can estimate the
+	 * available throughput.
+	 *
+	 * @param bytes - the size of the segment
+	 * @param nanos - the time taken to download the segment
+	 */
+	default void downloaded(long bytes, long nanos) {
+	}
+
+	/**
+	 * Selects the track of the next segment.
+	 *
+	 * @param tracks     - the tracks of the movie
+	 * @param current    - the track of the previous segment, or -1 before the first
+	 * @param bufferMs   - the media duration of the segments waiting in the player queue
+	 * @param capacityMs - the media duration the player queue can hold
+	 * @return the index of the selected track
+	 */
+	int select(List<Track> tracks, int current, long bufferMs, long capacityMs);
+
+	/**
+	 * Creates a new strategy, given its name: "ewma", "harmonic", "bola" or
+	 * "fixed:[track]".
+	 */
+	static AbrStrategy forName(String name) {
+		var parts = name.toLowerCase().split(":");
+		switch (parts[0]) {
+		case "ewma":
+			return new ThroughputStrategy(ThroughputStrategy.Estimator.EWMA);
+		case "harmonic":
+			return new ThroughputStrategy(ThroughputStrategy.Estimator.HARMONIC);
+		case "bola":
+			return new BolaStrategy();
+		case "fixed":
+			return new FixedStrategy(parts.length > 1 ? Integer.parseInt(parts[1]) : 0);
+		default:
+			throw new IllegalArgumentException("Unknown ABR strategy: " + name);
+		}
+	}
+
+	/**
+	 * @return the index of the track with the highest avgBandwidth not above the
+	 *         given bandwidth, or of the lowest track if none fits.
+	 */
+	static int highestBelow(List<Track> tracks, double bandwidth) {
+		int best = -1, lowest = 0;
+		for (int i = 0; i < tracks.size(); i++) {
+			int bw = tracks.get(i).avgBandwidth();
+			if (bw < tracks.get(lowest).avgBandwidth())
+				lowest = i;
+			if (bw <= bandwidth && (best < 0 || bw > tracks.get(best).avgBandwidth()))
+				best = i;
+		}
+		return best < 0 ? lowest : best;
+	}
+}
@@ -0,0 +1,72 @@
+package proxy.abr;
+
+import java.util.List;
+
+import media.MovieManifest.Track;
+
+/**
+ * Buffer-based strategy, after BOLA (Spiteri et al., "BOLA: Near-Optimal
+ * Bitrate Adaptation for Online Videos"), as used in dash.js.
+ *
+ * The track is chosen only from the occupancy of the player queue: each track
+ * gets a score that trades its utility, the log of its bitrate, against the
+ * risk of draining the queue, and the track with the highest score wins. The
+ * lowest track is chosen when the queue holds at most one segment, and the
+ * highest one when it is nearly full.
+ *
+ * To avoid oscillations, the strategy never switches up to a track whose
+ * avgBandwidth exceeds the throughput of the last download (BOLA-O).
+ *
+ * @author smduarte
+ *
+ */
+public class BolaStrategy implements AbrStrategy {
+
+	private double lastThroughput = -1;
+
+	@Override
+	public void downloaded(long bytes, long nanos) {
+		if (nanos > 0)
+			lastThroughput = bytes * 8 * 1e9 / nanos;
+	}
+
+	@Override
+	public int select(List<Track> tracks, int current, long bufferMs, long capacityMs) {
+		int n = tracks.size(), lowest = AbrStrategy.highestBelow(tracks, 0);
+		double minBitrate = tracks.get(lowest).avgBandwidth();
+
+		// utilities are normalized so that the lowest track has utility 1
+		double maxUtility = 1;
+		for (var t : tracks)
+			maxUtility = Math.max(maxUtility, utility(t, minBitrate));
+
+		// below one segment the lowest track is chosen, at the capacity the highest one
+		double minBuffer = tracks.get(lowest).segmentDuration();
+		double target = Math.max(capacityMs, 2 * minBuffer);
+		double gp = (maxUtility - 1) / (target / minBuffer - 1);
+		double vp = minBuffer / gp;
+
+		int best = lowest;
+		double bestScore = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < n; i++) {
+			var t = tracks.get(i);
+			double score = (vp * (utility(t, minBitrate) + gp) - bufferMs) / t.avgBandwidth();
+			if (score > bestScore) {
+				bestScore = score;
+				best = i;
+			}
+		}
+
+		// BOLA-O: only switch up as far as the last measured throughput allows
+		if (current >= 0 && lastThroughput > 0) {
+			int curBitrate = tracks.get(current).avgBandwidth();
+			if (tracks.get(best).avgBandwidth() > curBitrate && tracks.get(best).avgBandwidth() > lastThroughput)
+				best = AbrStrategy.highestBelow(tracks, Math.max(lastThroughput, curBitrate));
+		}
+		return best;
+	}
+
+	private static double utility(Track t, double minBitrate) {
+		return Math.log(t.avgBandwidth() / minBitrate) + 1;
+	}
+}
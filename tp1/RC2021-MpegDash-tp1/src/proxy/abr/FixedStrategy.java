@@ -0,0 +1,26 @@
+package proxy.abr;
+
+import java.util.List;
+
+import media.MovieManifest.Track;
+
+/**
+ * Always selects the same track. Serves as a baseline when comparing
+ * strategies.
+ *
+ * @author smduarte
+ *
+ */
+public class FixedStrategy implements AbrStrategy {
+
+	final int track;
+
+	public FixedStrategy(int track) {
+		this.track = track;
+	}
+
+	@Override
+	public int select(List<Track> tracks, int current, long bufferMs, long capacityMs) {
+		return Math.min(track, tracks.size() - 1);
+	}
+}
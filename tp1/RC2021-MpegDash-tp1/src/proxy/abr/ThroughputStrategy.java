@@ -0,0 +1,84 @@
+package proxy.abr;
+
+import java.util.List;
+
+import media.MovieManifest.Track;
+
+/**
+ * Throughput-based strategy: selects the highest track whose avgBandwidth fits
+ * in the estimated throughput, scaled down by a safety margin.
+ *
+ * The throughput is estimated from the recent segment downloads, either as an
+ * exponentially weighted moving average (EWMA), or as the harmonic mean of the
+ * last few samples, which is less sensitive to short bursts.
+ *
+ * The safety margin depends on the occupancy of the player queue: when the
+ * queue is nearly empty, a stall is close, so the margin is more conservative;
+ * when it is full, there is time to absorb a slower download.
+ *
+ * @author smduarte
+ *
+ */
+public class ThroughputStrategy implements AbrStrategy {
+
+	public static enum Estimator {
+		EWMA, HARMONIC
+	};
+
+	static final double EWMA_WEIGHT = 0.3; // weight of the latest sample
+	static final int HARMONIC_SAMPLES = 5;
+
+	static final double LOW_BUFFER_MARGIN = 0.5;
+	static final double SAFETY_MARGIN = 0.75;
+	static final double FULL_BUFFER_MARGIN = 0.9;
+
+	final Estimator estimator;
+
+	private double ewma;
+	private final double[] samples = new double[HARMONIC_SAMPLES];
+	private int totalSamples;
+
+	public ThroughputStrategy(Estimator estimator) {
+		this.estimator = estimator;
+	}
+
+	@Override
+	public void downloaded(long bytes, long nanos) {
+		if (nanos <= 0)
+			return;
+		double bps = bytes * 8 * 1e9 / nanos;
+		ewma = totalSamples == 0 ? bps : EWMA_WEIGHT * bps + (1 - EWMA_WEIGHT) * ewma;
+		samples[totalSamples++ % HARMONIC_SAMPLES] = bps;
+	}
+
+	/**
+	 * @return the estimated throughput in bits/s, or -1 if there are no samples yet
+	 */
+	public double throughput() {
+		if (totalSamples == 0)
+			return -1;
+		if (estimator == Estimator.EWMA)
+			return ewma;
+
+		int n = Math.min(totalSamples, HARMONIC_SAMPLES);
+		double sum = 0;
+		for (int i = 0; i < n; i++)
+			sum += 1 / samples[i];
+		return n / sum;
+	}
+
+	@Override
+	public int select(List<Track> tracks, int current, long bufferMs, long capacityMs) {
+		double throughput = throughput();
+		if (throughput < 0)
+			return AbrStrategy.highestBelow(tracks, 0);
+
+		double margin = SAFETY_MARGIN;
+		if (bufferMs * 4 < capacityMs)
+			margin = LOW_BUFFER_MARGIN;
+		else if (bufferMs >= capacityMs)
+			margin = FULL_BUFFER_MARGIN;
+
+		return AbrStrategy.highestBelow(tracks, throughput * margin);
+	}
+}
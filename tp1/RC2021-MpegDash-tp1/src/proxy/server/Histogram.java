@@ -0,0 +1,62 @@
+package proxy.server;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of non-negative values, in power-of-two buckets.
+ *
+ * Recording a value only increments LongAdders, so it never blocks and
+ * contended updates from several threads stay cheap. Percentiles are
+ * approximated by the upper bound of their bucket.
+ *
+ * @author smduarte
+ */
+class Histogram {
+
+	private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+	private final LongAdder count = new LongAdder(), sum = new LongAdder();
+	private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+	Histogram() {
+		for (int i = 0; i < buckets.length; i++)
+			buckets[i] = new LongAdder();
+	}
+
+	void record(long value) {
+		value = Math.max(0, value);
+		buckets[Long.SIZE - Long.numberOfLeadingZeros(value)].increment();
+		count.increment();
+		sum.add(value);
+		max.accumulate(value);
+	}
+
+	long count() {
+		return count.sum();
+	}
+
+	/**
+	 * @param p - the percentile, between 0 and 1
+	 * @return the upper bound of the bucket of the given percentile
+	 */
+	long percentile(double p) {
+		long total = count.sum(), seen = 0;
+		if (total == 0)
+			return 0;
+		for (int i = 0; i < buckets.length; i++) {
+			seen += buckets[i].sum();
+			if (seen >= p * total)
+				return Math.min((1L << i) - 1, max.get());
+		}
+		return max.get();
+	}
+
+	void toJson(StringBuilder sb) {
+		long n = count.sum();
+		sb.append("{\"count\":").append(n)
+				.append(",\"mean\":").append(n == 0 ? 0 : sum.sum() / n)
+				.append(",\"p50\":").append(percentile(0.5))
+				.append(",\"p99\":").append(percentile(0.99))
+				.append(",\"max\":").append(max.get()).append('}');
+	}
+}
@@ -0,0 +1,158 @@
+package proxy.server;
+
+import java.io.PrintStream;
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous logger of the proxy.
+ *
+ * Messages below the current level are never built: callers pass a supplier,
+ * or check enabled() first. Enabled messages are put in a bounded ring buffer
+ * and written to System.err by a background thread, so logging never blocks
+ * a socket thread. When the ring is full, messages are dropped and counted.
+ *
+ * The level is set with the log.level system property: DEBUG, INFO (the
+ * default, also used for unknown levels), WARN, ERROR or OFF.
+ *
+ * @author smduarte
+ */
+public class Log {
+
+	public static enum Level {
+		DEBUG, INFO, WARN, ERROR, OFF
+	}
+
+	private static record Entry(long millis, Level level, String thread, String message, Throwable error) {
+	}
+
+	private static final int CAPACITY = 1 << 13, MASK = CAPACITY - 1;
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private static volatile Level level = initialLevel();
+
+	private static final AtomicReferenceArray<Entry> ring = new AtomicReferenceArray<>(CAPACITY);
+	private static final AtomicLong tail = new AtomicLong();
+	private static volatile long head;
+	private static final LongAdder dropped = new LongAdder();
+
+	private static volatile boolean sleeping;
+	private static final Thread writer = new Thread(Log::drain, "log-writer");
+	private static final PrintStream out = System.err;
+
+	static {
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+	}
+
+	public static void setLevel(Level l) {
+		level = l;
+	}
+
+	private static Level initialLevel() {
+		var name = System.getProperty("log.level", "INFO");
+		try {
+			return Level.valueOf(name.toUpperCase());
+		} catch (IllegalArgumentException x) {
+			System.err.println("Unknown log.level: " + name + ", using INFO");
+			return Level.INFO;
+		}
+	}
+
+	public static boolean enabled(Level l) {
+		return level != Level.OFF && l.compareTo(level) >= 0;
+	}
+
+	public static void debug(Supplier<String> msg) {
+		if (enabled(Level.DEBUG))
+			log(Level.DEBUG, msg.get(), null);
+	}
+
+	public static void info(String msg) {
+		if (enabled(Level.INFO))
+			log(Level.INFO, msg, null);
+	}
+
+	public static void info(Supplier<String> msg) {
+		if (enabled(Level.INFO))
+			log(Level.INFO, msg.get(), null);
+	}
+
+	public static void warn(String msg) {
+		if (enabled(Level.WARN))
+			log(Level.WARN, msg, null);
+	}
+
+	public static void error(String msg, Throwable x) {
+		if (enabled(Level.ERROR))
+			log(Level.ERROR, msg, x);
+	}
+
+	private static void log(Level l, String msg, Throwable x) {
+		var e = new Entry(System.currentTimeMillis(), l, Thread.currentThread().getName(), msg, x);
+		for (;;) {
+			long t = tail.get();
+			if (t - head >= CAPACITY) {
+				dropped.increment();
+				return;
+			}
+			if (tail.compareAndSet(t, t + 1)) {
+				ring.set((int) t & MASK, e);
+				break;
+			}
+		}
+		if (sleeping)
+			LockSupport.unpark(writer);
+	}
+
+	/**
+	 * Waits until the messages logged so far are written, for up to a second.
+	 */
+	public static void flush() {
+		long target = tail.get(), deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+		while (head < target && System.nanoTime() < deadline) {
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(100_000);
+		}
+	}
+
+	// a slot claimed by a producer but not yet filled ends the batch, until the next round
+	private static void drain() {
+		long lastDropped = 0;
+		for (;;) {
+			Entry e;
+			while ((e = ring.get((int) head & MASK)) != null) {
+				ring.set((int) head & MASK, null);
+				write(e);
+				head++;
+			}
+			long d = dropped.sum();
+			if (d > lastDropped) {
+				out.printf("%s WARN  [log-writer] %d messages dropped\n", LocalTime.now(), d - lastDropped);
+				lastDropped = d;
+			}
+			out.flush();
+
+			sleeping = true;
+			if (ring.get((int) head & MASK) == null)
+				LockSupport.parkNanos(IDLE_NANOS);
+			sleeping = false;
+		}
+	}
+
+	private static void write(Entry e) {
+		var time = LocalTime.ofInstant(Instant.ofEpochMilli(e.millis), ZoneId.systemDefault());
+		out.printf("%s %-5s [%s] %s\n", time, e.level, e.thread, e.message);
+		if (e.error != null)
+			e.error.printStackTrace(out);
+	}
+}
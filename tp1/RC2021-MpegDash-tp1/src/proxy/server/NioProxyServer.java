@@ -0,0 +1,242 @@
+package proxy.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BiFunction;
+
+import http.HttpHeaderParser;
+import http.HttpHeaderParser.Event;
+import media.MovieManifest.SegmentContent;
+
+/**
+ * Event-driven server-side of the MpegDash proxy.
+ *
+ * A single thread serves all browser connections, using a selector over
+ * non-blocking channels. A request for a segment that is not yet available is
+ * parked, until the client-side handler adds it to the player queue.
+ *
+ * Segments kept in a file are sent with FileChannel.transferTo.
+ *
+ * @author smduarte
+ */
+class NioProxyServer {
+
+	private final Selector selector;
+	private final BiFunction<String, BlockingQueue<SegmentContent>, Runnable> factory;
+
+	// parked connections whose player queue got a new segment
+	private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+
+	private NioProxyServer(BiFunction<String, BlockingQueue<SegmentContent>, Runnable> factory) throws IOException {
+		this.factory = factory;
+		this.selector = Selector.open();
+	}
+
+	static void start(BiFunction<String, BlockingQueue<SegmentContent>, Runnable> factory) {
+		try (var ssc = ServerSocketChannel.open()) {
+			ssc.bind(new InetSocketAddress(ProxyServer.PROXY_SERVER_PORT));
+			ssc.configureBlocking(false);
+			Log.info("ProxyServer (NIO) listening on port " + ProxyServer.PROXY_SERVER_PORT);
+			new NioProxyServer(factory).run(ssc);
+		} catch (IOException x) {
+			Log.error("ProxyServer (NIO) failed", x);
+		}
+	}
+
+	private void run(ServerSocketChannel ssc) throws IOException {
+		ssc.register(selector, SelectionKey.OP_ACCEPT);
+		for (;;) {
+			selector.select();
+
+			Connection conn;
+			while ((conn = ready.poll()) != null)
+				try {
+					conn.serve();
+				} catch (Exception x) {
+					ProxyServer.failed(x);
+					conn.close();
+				}
+
+			var keys = selector.selectedKeys();
+			for (var key : keys) {
+				try {
+					if (key.isAcceptable())
+						accept(ssc);
+					else {
+						conn = (Connection) key.attachment();
+						if (key.isReadable())
+							conn.read();
+						if (key.isValid() && key.isWritable())
+							conn.write();
+					}
+				} catch (Exception x) {
+					ProxyServer.failed(x);
+					if (key.attachment() instanceof Connection c)
+						c.close();
+				}
+			}
+			keys.clear();
+		}
+	}
+
+	private void accept(ServerSocketChannel ssc) throws IOException {
+		SocketChannel ch;
+		while ((ch = ssc.accept()) != null) {
+			ch.configureBlocking(false);
+			var conn = new Connection(ch);
+			conn.key = ch.register(selector, SelectionKey.OP_READ, conn);
+		}
+	}
+
+	/**
+	 * The state of a browser connection: reading the request, parked waiting for
+	 * a segment or writing the reply.
+	 */
+	class Connection {
+		final SocketChannel channel;
+		final ByteBuffer request = ByteBuffer.allocate(Player.MAX_REQUEST_SIZE).limit(0);
+		final HttpHeaderParser parser = new HttpHeaderParser();
+		SelectionKey key;
+
+		String path;
+		Player player;
+		SegmentContent segment;
+		ByteBuffer[] reply;
+		long filePosition, fileEnd, parkedAt;
+
+		Connection(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		void read() throws IOException {
+			int limit = request.limit();
+			if (limit == request.capacity()) {
+				close();
+				return;
+			}
+			var in = request.duplicate().position(limit).limit(request.capacity());
+			if (channel.read(in) < 0) {
+				close();
+				return;
+			}
+			request.limit(in.position());
+
+			// bytes received after the request, or while parked, are ignored
+			if (player != null || reply != null)
+				return;
+
+			Event e;
+			while ((e = parser.next(request)) == Event.START_LINE || e == Event.HEADER)
+				if (e == Event.START_LINE) {
+					path = parser.token(request, 1);
+					Log.debug(() -> parser.line(request));
+				}
+
+			if (e == Event.MALFORMED)
+				close();
+			else if (e == Event.END && path.equals(Player.STATS_PATH))
+				reply(Player.stats());
+			else if (e == Event.END) {
+				try {
+					player = Player.forRequest(path, factory);
+				} catch (RejectedExecutionException x) {
+					send(Player.unavailable());
+					return;
+				}
+				if (player == null)
+					close();
+				else
+					serve();
+			}
+		}
+
+		/**
+		 * Replies with the next segment in the player queue, or parks the request
+		 * until one is available.
+		 */
+		void serve() {
+			if (!channel.isOpen() || segment != null)
+				return;
+
+			var next = nextSegment();
+			if (next == null) {
+				if (parkedAt == 0)
+					parkedAt = System.nanoTime();
+				return;
+			}
+			if (parkedAt != 0)
+				player.stats.waited(System.nanoTime() - parkedAt);
+
+			Log.debug(() -> "REPLY: " + next.contentType() + ", " + next.length() + " bytes");
+			reply(next);
+		}
+
+		// waits for the next segment only if there is none yet, polling again once
+		// registered, so that a segment added in between is not missed
+		private SegmentContent nextSegment() {
+			var next = player.queue.poll();
+			if (next != null)
+				return next;
+			player.queue.onNext(this::wakeup);
+			return player.queue.poll();
+		}
+
+		void reply(SegmentContent segment) {
+			this.segment = segment;
+			if (segment.file() != null) {
+				filePosition = segment.position();
+				fileEnd = filePosition + segment.length();
+			}
+			send(Player.reply(segment));
+		}
+
+		void send(ByteBuffer[] reply) {
+			this.reply = reply;
+			try {
+				write();
+				if (channel.isOpen())
+					key.interestOps(SelectionKey.OP_WRITE);
+			} catch (IOException x) {
+				ProxyServer.failed(x);
+				close();
+			}
+		}
+
+		void write() throws IOException {
+			channel.write(reply);
+			if (reply[reply.length - 1].hasRemaining())
+				return;
+			if (filePosition < fileEnd)
+				filePosition += segment.file().transferTo(filePosition, fileEnd - filePosition, channel);
+			if (filePosition == fileEnd) {
+				close();
+				if (player != null)
+					player.served(segment);
+			}
+		}
+
+		void wakeup() {
+			ready.add(this);
+			selector.wakeup();
+		}
+
+		void close() {
+			if (segment != null)
+				segment.release();
+			try {
+				key.cancel();
+				channel.close();
+			} catch (IOException x) {
+			}
+		}
+	}
+}
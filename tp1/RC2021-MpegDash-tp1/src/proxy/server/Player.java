@@ -0,0 +1,343 @@
+package proxy.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BiFunction;
+
+import http.HttpHeaderParser;
+import http.HttpHeaderParser.Event;
+import static media.MovieManifest.SegmentContent;
+
+/**
+ * A browser movie player, fed by a client-side handler through a segment
+ * queue.
+ *
+ * Each player holds a lease, renewed by every browser request. A reaper
+ * thread closes the players whose lease expired, such as those of abandoned
+ * browser tabs: their handler is interrupted, their queued segments are
+ * released and the browser request still waiting, if any, gets the end of the
+ * movie. New players are only admitted below a maximum number of players.
+ *
+ * The idle timeout, in seconds, and the maximum number of players are set by
+ * the proxy.idleTimeout and proxy.maxPlayers system properties.
+ * 
+ * @author smduarte
+ */
+class Player {
+	private static final String CRLF = "\r\n";
+	private static final String HTTP_OK = "HTTP/1.0 200 OK\r\n";
+	private static final String HTTP_CORS = "Access-Control-Allow-Origin: *\r\n";
+	private static final String HTTP_CONTENT_TYPE = "Content-Type: ";
+	private static final String HTTP_CONTENT_LENGTH = "Content-Length: ";
+	private static final String HTTP_UNAVAILABLE = "HTTP/1.0 503 Service Unavailable\r\nRetry-After: 5\r\nContent-Length: 0\r\n\r\n";
+	private static final byte[] CRLF_CRLF = "\r\n\r\n".getBytes();
+	private static final int MAX_LENGTH_DIGITS = 19;
+
+	// default capacity of the segment queue, until the handler sets it
+	private static final int MAX_SEGMENTS = 2;
+	static final int MAX_REQUEST_SIZE = 8 * 1024;
+
+	private static final Object START_COMMAND = "start";
+	static final String STATS_PATH = "/stats";
+	private static final String STATS_CONTENT_TYPE = "application/json";
+	private static final String EOS_CONTENT_TYPE = "video/mp4";
+
+	// the number of finished players still reported on the stats path
+	private static final int MAX_FINISHED = 32;
+
+	static final long IDLE_TIMEOUT = TimeUnit.SECONDS.toNanos(Long.getLong("proxy.idleTimeout", 60));
+	static final int MAX_PLAYERS = Integer.getInteger("proxy.maxPlayers", 64);
+
+	final String id;
+	final SegmentQueue queue;
+	final PlayerStats stats;
+
+	private volatile long leased = System.nanoTime();
+	private volatile Thread handler;
+	private final AtomicBoolean closed = new AtomicBoolean();
+
+	static void processBrowserRequest(SocketChannel ch, BiFunction<String, BlockingQueue<SegmentContent>, Runnable> factory) throws Exception {
+		InputStream is = Channels.newInputStream(ch);
+
+		var buf = ByteBuffer.allocate(MAX_REQUEST_SIZE).limit(0);
+		var parser = new HttpHeaderParser();
+		if (parser.next(buf, is) != Event.START_LINE)
+			return;
+		Log.debug(() -> parser.line(buf));
+
+		String path = parser.token(buf, 1);
+
+		while (parser.next(buf, is) == Event.HEADER)
+			;
+
+		if (path.equals(STATS_PATH)) {
+			write(ch, stats());
+			return;
+		}
+
+		Player player;
+		try {
+			player = forRequest(path, factory);
+		} catch (RejectedExecutionException x) {
+			write(ch, unavailable());
+			return;
+		}
+		if (player == null)
+			return;
+
+		var segment = player.queue.poll();
+		if (segment == null) {
+			long t0 = System.nanoTime();
+			segment = player.queue.take();
+			player.stats.waited(System.nanoTime() - t0);
+		}
+
+		var next = segment;
+		Log.debug(() -> "REPLY: " + next.contentType() + ", " + next.length() + " bytes");
+
+		write(ch, segment);
+		player.served(segment);
+	}
+
+	private static void write(SocketChannel ch, ByteBuffer[] reply) throws IOException {
+		while (reply[reply.length - 1].hasRemaining())
+			ch.write(reply);
+		ch.close();
+	}
+
+	private static void write(SocketChannel ch, SegmentContent segment) throws IOException {
+		try {
+			var reply = reply(segment);
+			while (reply[reply.length - 1].hasRemaining())
+				ch.write(reply);
+			if (segment.file() != null)
+				transfer(segment, ch);
+		} finally {
+			segment.release();
+		}
+		ch.close();
+	}
+
+	/**
+	 * Finds the player a request path refers to, launching a new one for start
+	 * commands, and renews its lease.
+	 *
+	 * @return the player, or null if the request is not valid
+	 * @throws RejectedExecutionException if a new player is not admitted, because
+	 *                                    there are too many players
+	 */
+	static Player forRequest(String path, BiFunction<String, BlockingQueue<SegmentContent>, Runnable> factory) {
+		String[] pathTokens = path.split("/");
+		if (pathTokens.length != 4)
+			return null;
+
+		String playerId = pathTokens[1];
+		String movie = pathTokens[2];
+		String command = pathTokens[3];
+
+
+		var player = players.get(playerId);
+		if (player == null && command.equals(START_COMMAND)) {
+			Player started = null;
+			// only the slot is reserved under the lock; the handler is built and launched outside it
+			synchronized (admission) {
+				if (players.size() >= MAX_PLAYERS)
+					reap(System.nanoTime());
+				if (players.size() >= MAX_PLAYERS) {
+					Log.warn("Too many players. Rejected: " + playerId);
+					throw new RejectedExecutionException(playerId);
+				}
+				if ((player = players.putIfAbsent(playerId, started = new Player(playerId, movie))) == null)
+					player = started;
+				else
+					started = null;
+			}
+			if (started != null)
+				try {
+					handlers.execute(started.handler(factory.apply(movie, started.queue)));
+				} catch (RuntimeException x) {
+					players.remove(playerId, started);
+					throw x;
+				}
+		}
+		if (player != null)
+			player.leased = System.nanoTime();
+		return player;
+	}
+
+	// runs the client-side handler, so that the reaper can interrupt it
+	private Runnable handler(Runnable task) {
+		return () -> {
+			handler = Thread.currentThread();
+			try {
+				if (!closed.get())
+					task.run();
+			} finally {
+				handler = null;
+				Thread.interrupted();
+				// segments put by the handler while it was being closed
+				if (closed.get())
+					endMovie(queue);
+			}
+		};
+	}
+
+	/**
+	 * Builds the buffers of the reply with the given segment, for a gathering
+	 * write: the header bytes, and the segment data, if it is held in memory.
+	 * The last buffer is never empty, so the reply is written once it has no
+	 * bytes remaining.
+	 *
+	 * Headers are pre-encoded for each content type, up to the Content-Length
+	 * value, so only the length is encoded for each reply.
+	 */
+	static ByteBuffer[] reply(SegmentContent segment) {
+		var prefix = replyPrefixes.computeIfAbsent(segment.contentType(), Player::replyPrefix).duplicate();
+		var length = encodeLength(segment.length());
+		if (segment.data() != null && segment.data().length > 0)
+			return new ByteBuffer[] { prefix, length, ByteBuffer.wrap(segment.data()) };
+		else
+			return new ByteBuffer[] { prefix, length };
+	}
+
+	/**
+	 * @return the reply to a start command when there are too many players
+	 */
+	static ByteBuffer[] unavailable() {
+		return new ByteBuffer[] { UNAVAILABLE.duplicate() };
+	}
+
+	private static ByteBuffer replyPrefix(String contentType) {
+		var prefix = HTTP_OK + HTTP_CORS + HTTP_CONTENT_TYPE + contentType + CRLF + HTTP_CONTENT_LENGTH;
+		return ByteBuffer.wrap(prefix.getBytes()).asReadOnlyBuffer();
+	}
+
+	// the decimal digits of the length, followed by the end of the headers
+	private static ByteBuffer encodeLength(long length) {
+		byte[] buf = new byte[MAX_LENGTH_DIGITS + CRLF_CRLF.length];
+		int i = MAX_LENGTH_DIGITS;
+		do {
+			buf[--i] = (byte) ('0' + length % 10);
+			length /= 10;
+		} while (length > 0);
+		System.arraycopy(CRLF_CRLF, 0, buf, MAX_LENGTH_DIGITS, CRLF_CRLF.length);
+		return ByteBuffer.wrap(buf, i, buf.length - i);
+	}
+
+	/**
+	 * Writes a segment kept in a file region to the given channel, blocking until
+	 * it is all written.
+	 */
+	static void transfer(SegmentContent segment, WritableByteChannel out) throws IOException {
+		long position = segment.position(), end = position + segment.length();
+		while (position < end)
+			position += segment.file().transferTo(position, end - position, out);
+	}
+
+	/**
+	 * Called after a segment is sent to the browser. The end of the movie is
+	 * signaled by a zero-length segment.
+	 */
+	void served(SegmentContent segment) {
+		leased = System.nanoTime();
+		stats.served(segment.length(), queue.size());
+		if( segment.length() == 0 && closed.compareAndSet(false, true))
+			finish();
+	}
+
+	private void finish() {
+		players.remove(id, this);
+		finished.addFirst(stats);
+		while (finished.size() > MAX_FINISHED)
+			finished.pollLast();
+	}
+
+	/**
+	 * Closes a player whose lease expired: interrupts its handler, releases
+	 * its queued segments and ends the movie for the browser request waiting
+	 * for one, if any.
+	 */
+	void expire() {
+		if (!closed.compareAndSet(false, true))
+			return;
+		stats.expired();
+		finish();
+		var t = handler;
+		if (t != null)
+			t.interrupt();
+		endMovie(queue);
+		Log.info(() -> "Expired idle player: " + id);
+	}
+
+	// releases the queued segments, leaving only the end of the movie, for a request still waiting
+	private static void endMovie(SegmentQueue queue) {
+		SegmentContent segment;
+		while ((segment = queue.poll()) != null)
+			segment.release();
+		queue.offer(new SegmentContent(EOS_CONTENT_TYPE, new byte[0]));
+	}
+
+	/**
+	 * Expires the players whose lease is older than the idle timeout.
+	 */
+	static void reap(long now) {
+		for (var p : players.values())
+			if (now - p.leased > IDLE_TIMEOUT)
+				p.expire();
+	}
+
+	/**
+	 * @return the stats of the active and recently finished players, as JSON
+	 */
+	static SegmentContent stats() {
+		var sb = new StringBuilder("{\"players\":[");
+		for (var p : players.values()) {
+			p.stats.toJson(sb, p.queue.size());
+			sb.append(',');
+		}
+		for (var s : finished) {
+			s.toJson(sb, 0);
+			sb.append(',');
+		}
+		if (sb.charAt(sb.length() - 1) == ',')
+			sb.setLength(sb.length() - 1);
+		sb.append("]}\n");
+		return new SegmentContent(STATS_CONTENT_TYPE, sb.toString().getBytes());
+	}
+
+	Player(String id, String movie) {
+		this.id = id;
+		this.stats = new PlayerStats(id, movie);
+		this.queue = new SegmentQueue(MAX_SEGMENTS, stats);
+	}
+
+	private static Map<String, Player> players = new ConcurrentHashMap<>();
+
+	private static final Object admission = new Object();
+
+	private static final Deque<PlayerStats> finished = new ConcurrentLinkedDeque<>();
+
+	private static final Map<String, ByteBuffer> replyPrefixes = new ConcurrentHashMap<>();
+
+	private static final ByteBuffer UNAVAILABLE = ByteBuffer.wrap(HTTP_UNAVAILABLE.getBytes()).asReadOnlyBuffer();
+
+	// runs the client-side playback handlers, set according to the server mode
+	static Executor handlers = ServerThreads.handlers(ProxyServer.Mode.BLOCKING);
+
+	static {
+		ServerThreads.reaper(() -> reap(System.nanoTime()), IDLE_TIMEOUT / 4);
+	}
+}
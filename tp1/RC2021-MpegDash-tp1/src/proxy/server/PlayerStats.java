@@ -0,0 +1,133 @@
+package proxy.server;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Quality of experience counters of a player, updated by the server as it
+ * replies to the browser, and by the client-side handler as it fetches
+ * segments. Exported as JSON on the stats path of the proxy.
+ *
+ * Counters are LongAdders and histograms, so updating them costs almost
+ * nothing on the serving path.
+ *
+ * @author smduarte
+ */
+public class PlayerStats {
+
+	static final int MAX_TRACKS = 16;
+
+	final String id, movie;
+	final long created = System.nanoTime();
+	volatile long firstSegmentNanos = -1, finishedNanos = -1;
+	volatile boolean expired;
+
+	final LongAdder served = new LongAdder(), servedBytes = new LongAdder();
+	final LongAdder stalls = new LongAdder();
+	final Histogram stallMs = new Histogram(), queueDepth = new Histogram();
+
+	final LongAdder[] tracks = new LongAdder[MAX_TRACKS];
+	final LongAdder switches = new LongAdder();
+	private volatile int lastTrack = -1;
+
+	final LongAdder downloadedBytes = new LongAdder(), downloadNanos = new LongAdder();
+	final LongAdder cacheHits = new LongAdder(), cacheMisses = new LongAdder();
+
+	public PlayerStats(String id, String movie) {
+		this.id = id;
+		this.movie = movie;
+		for (int i = 0; i < tracks.length; i++)
+			tracks[i] = new LongAdder();
+	}
+
+	/**
+	 * Records a segment chosen by the handler, and whether it was found in the
+	 * segment cache, rather than fetched from the media server.
+	 */
+	public void segment(int track, boolean cached) {
+		tracks[Math.min(track, MAX_TRACKS - 1)].increment();
+		if (lastTrack >= 0 && track != lastTrack)
+			switches.increment();
+		lastTrack = track;
+		(cached ? cacheHits : cacheMisses).increment();
+	}
+
+	/**
+	 * Records the download of a segment from the media server.
+	 */
+	public void downloaded(long bytes, long nanos) {
+		downloadedBytes.add(bytes);
+		downloadNanos.add(nanos);
+	}
+
+	/**
+	 * Records a browser request that had to wait for its segment. Waits before
+	 * the first segment count as startup time, not as stalls.
+	 */
+	void waited(long nanos) {
+		if (firstSegmentNanos < 0)
+			return;
+		stalls.increment();
+		stallMs.record(nanos / 1_000_000);
+	}
+
+	/**
+	 * Records a segment sent to the browser, and the segments left in the queue.
+	 */
+	void served(long length, int depth) {
+		long now = System.nanoTime();
+		if (length == 0) {
+			if (finishedNanos < 0)
+				finishedNanos = now;
+			return;
+		}
+		if (firstSegmentNanos < 0)
+			firstSegmentNanos = now - created;
+		served.increment();
+		servedBytes.add(length);
+		queueDepth.record(depth);
+	}
+
+	/**
+	 * Records the end of a player closed by the reaper, for being idle.
+	 */
+	void expired() {
+		expired = true;
+		finishedNanos = System.nanoTime();
+	}
+
+	void toJson(StringBuilder sb, int depth) {
+		long hits = cacheHits.sum(), misses = cacheMisses.sum(), nanos = downloadNanos.sum();
+		long end = finishedNanos < 0 ? System.nanoTime() : finishedNanos;
+
+		sb.append("{\"id\":\"").append(escape(id)).append("\",\"movie\":\"").append(escape(movie))
+				.append("\",\"finished\":").append(finishedNanos >= 0)
+				.append(",\"expired\":").append(expired)
+				.append(",\"uptimeMs\":").append((end - created) / 1_000_000)
+				.append(",\"timeToFirstSegmentMs\":").append(firstSegmentNanos < 0 ? -1 : firstSegmentNanos / 1_000_000)
+				.append(",\"segments\":").append(served.sum())
+				.append(",\"bytes\":").append(servedBytes.sum())
+				.append(",\"stalls\":").append(stalls.sum())
+				.append(",\"stallMs\":");
+		stallMs.toJson(sb);
+		sb.append(",\"queueDepth\":").append(depth).append(",\"queueDepthAtReply\":");
+		queueDepth.toJson(sb);
+
+		int last = tracks.length;
+		while (last > 1 && tracks[last - 1].sum() == 0)
+			last--;
+		sb.append(",\"tracks\":[");
+		for (int i = 0; i < last; i++)
+			sb.append(i == 0 ? "" : ",").append(tracks[i].sum());
+		sb.append("],\"switches\":").append(switches.sum())
+				.append(",\"throughputKbps\":").append(nanos == 0 ? 0 : (long) (downloadedBytes.sum() * 8e6 / nanos))
+				.append(",\"cacheHits\":").append(hits)
+				.append(",\"cacheMisses\":").append(misses)
+				.append(",\"cacheHitRate\":").append(String.format(Locale.ROOT, "%.3f", hits / (double) Math.max(1, hits + misses)))
+				.append('}');
+	}
+
+	static String escape(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"");
+	}
+}
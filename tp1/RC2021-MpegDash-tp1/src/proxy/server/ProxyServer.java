@@ -1,112 +1,120 @@
 package proxy.server;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.ServerSocket;
-import java.net.Socket;
-import java.util.Map;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
 import java.util.function.BiFunction;
 
-import http.Http;
 import static media.MovieManifest.SegmentContent;
 
 /**
  * Server-side of the MpegDash proxy.
- * 
+ *
  * Accepts HTTP segments requests from the browser movie player.
- * 
+ *
  * 1) Launches a new client-side handler as needed.
  * 2) Feeds browser from a shared segment data queue.
- * 
+ *
+ * Requests are either served one at a time, in BLOCKING mode; each in its own
+ * platform or virtual thread, in THREADS or VIRTUAL mode; or concurrently by a
+ * single selector thread, in NIO mode.
+ *
+ * In VIRTUAL mode, the client-side handlers and their segment fetches also run
+ * in virtual threads. Without virtual threads in the JVM, VIRTUAL mode runs as
+ * THREADS mode.
+ *
+ * The /stats path replies with the quality of experience counters of the
+ * active and recently finished players, as JSON.
+ *
+ * Players idle for longer than the proxy.idleTimeout property, in seconds,
+ * are closed. Start commands beyond proxy.maxPlayers concurrent players are
+ * rejected with 503 Service Unavailable.
+ *
  * @author smduarte
  */
 public class ProxyServer {
 
-	private static final int PROXY_SERVER_PORT = 1234;
+	static final int PROXY_SERVER_PORT = 1234;
+
+	public static enum Mode {
+		BLOCKING, THREADS, VIRTUAL, NIO
+	};
+
+	// the mode the server runs in, after falling back from VIRTUAL if needed
+	private static volatile Mode mode = Mode.BLOCKING;
 
 	public static void start( BiFunction<String, BlockingQueue<SegmentContent>, Runnable> factory ) {
-		try (var ss = new ServerSocket(PROXY_SERVER_PORT)) {
-			System.err.printf("ProxyServer listening on port %s\n", ss.getLocalPort());
+		start(Mode.BLOCKING, factory);
+	}
+
+	public static void start( Mode requested, BiFunction<String, BlockingQueue<SegmentContent>, Runnable> factory ) {
+		mode = ServerThreads.effective(requested);
+		Player.handlers = ServerThreads.handlers(mode);
+		switch (mode) {
+		case NIO:
+			NioProxyServer.start(factory);
+			break;
+		default:
+			startBlocking(mode, factory);
+			break;
+		}
+	}
+
+	/**
+	 * @return a new executor for the segment fetches of a client-side handler,
+	 *         to be shut down by the handler
+	 */
+	public static ExecutorService fetchExecutor() {
+		return ServerThreads.fetches(mode);
+	}
+
+	private static void startBlocking( Mode mode, BiFunction<String, BlockingQueue<SegmentContent>, Runnable> factory ) {
+		var executor = ServerThreads.connections(mode);
+		try (var ss = ServerSocketChannel.open()) {
+			ss.bind(new InetSocketAddress(PROXY_SERVER_PORT));
+			Log.info(String.format("ProxyServer (%s) listening on port %s", mode, PROXY_SERVER_PORT));
 			for (;;) {
-				try(var cs = ss.accept()) {
-					System.err.println( "Handling request from:" +cs.getLocalSocketAddress());
-					Player.processBrowserRequest(cs, factory);					
-					System.err.println( "Done");
-				} catch( Exception x ) {
-					x.printStackTrace();
-				}
+				var cs = ss.accept();
+				if (executor == null)
+					handle(cs, factory);
+				else
+					executor.execute(() -> handle(cs, factory));
 			}
 		} catch (IOException x) {
-			x.printStackTrace();
+			Log.error("ProxyServer failed", x);
 		}
 	}
-}
-
-class Player {
-	private static final String CRLF = "\r\n";
-	private static final String HTTP_OK = "HTTP/1.0 200 OK\r\n";
-	private static final String HTTP_CORS = "Access-Control-Allow-Origin: *\r\n";
-	private static final String HTTP_CONTENT_TYPE_FMT = "Content-Type: %s\r\n";
-	private static final String HTTP_CONTENT_LENGTH_FMT = "Content-Length: %d\r\n";
-
-	private static final int MAX_SEGMENTS = 2;
 
-	private static final Object START_COMMAND = "start";
-	
-	final BlockingQueue<SegmentContent> queue;
-	
-	static void processBrowserRequest(Socket cs, BiFunction<String, BlockingQueue<SegmentContent>, Runnable> factory) throws Exception {
-		InputStream is = cs.getInputStream();
-
-		String request = Http.readLine(is);
-		System.err.println(request);
-
-		while (Http.readLine(is).length() > 0)
-			;
-
-		String path = Http.parseHttpRequest(request)[1];
-		String[] pathTokens = path.split("/");
-		if (pathTokens.length != 4)
-			return;
-
-		String playerId = pathTokens[1];
-		String movie = pathTokens[2];
-		String command = pathTokens[3];
-
-		System.err.println( movie );
-
-		var player = players.get(playerId);
-		if (player == null && command.equals(START_COMMAND)) {
-			players.put(playerId, player = new Player());
-			new Thread(factory.apply(movie, player.queue)).start();
+	private static void handle( SocketChannel channel, BiFunction<String, BlockingQueue<SegmentContent>, Runnable> factory ) {
+		try(var cs = channel) {
+			Log.debug(() -> "Handling request from:" + remoteAddress(cs));
+			Player.processBrowserRequest(cs, factory);
+			Log.debug(() -> "Done");
+		} catch( Exception x ) {
+			failed(x);
 		}
-		
-		var segment = player.queue.take();
-		var data = segment.data();
-		
-		var sb = new StringBuffer(HTTP_OK)
-				.append( HTTP_CORS )
-				.append(String.format(HTTP_CONTENT_TYPE_FMT, segment.contentType()))
-				.append(String.format(HTTP_CONTENT_LENGTH_FMT, data.length))
-				.append(CRLF);
-
-		System.err.println("REPLY:" + sb.toString());
-		
-		cs.getOutputStream().write( sb.toString().getBytes() );
-		cs.getOutputStream().write( data);	
-		cs.close();
-		
-		if( data.length == 0)
-			players.remove( playerId );
 	}
 
-	Player() {
-		this.queue = new ArrayBlockingQueue<>(MAX_SEGMENTS);
+	/**
+	 * Logs the failure of a browser connection. I/O errors are expected, as
+	 * browsers reset connections as they seek or close, and are only logged at
+	 * debug level.
+	 */
+	static void failed(Exception x) {
+		if (x instanceof IOException)
+			Log.debug(() -> "Connection closed: " + x);
+		else
+			Log.error("Connection failed", x);
 	}
 
-
-	private static Map<String, Player> players = new ConcurrentHashMap<>();
-}
\ No newline at end of file
+	private static Object remoteAddress(SocketChannel channel) {
+		try {
+			return channel.getRemoteAddress();
+		} catch (IOException x) {
+			return null;
+		}
+	}
+}
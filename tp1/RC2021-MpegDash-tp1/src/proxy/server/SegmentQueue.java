@@ -0,0 +1,186 @@
+package proxy.server;
+
+import java.util.Collection;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import media.MovieManifest.SegmentContent;
+
+/**
+ * The segment queue of a player.
+ *
+ * Notifies waiting consumers when a segment is added, so that requests can be
+ * parked without blocking a thread.
+ *
+ * Its capacity can be changed after it is created, so that the client-side
+ * handler can size it in seconds of media, once the segment duration of the
+ * movie is known. Assumes a single producer. Every removal wakes the producer,
+ * if it is waiting for space.
+ *
+ * It also carries the stats of its player, so that the client-side handler
+ * can record the segments it chooses and fetches.
+ *
+ * @author smduarte
+ */
+public class SegmentQueue extends ArrayBlockingQueue<SegmentContent> {
+	private static final long serialVersionUID = 1L;
+
+	static final int MAX_CAPACITY = 1024;
+
+	private final Queue<Runnable> waiters = new ConcurrentLinkedQueue<>();
+
+	private final Object space = new Object();
+	private volatile int capacity;
+	private final PlayerStats stats;
+
+	SegmentQueue(int capacity, PlayerStats stats) {
+		super(MAX_CAPACITY);
+		this.capacity = capacity;
+		this.stats = stats;
+	}
+
+	public PlayerStats stats() {
+		return stats;
+	}
+
+	/**
+	 * Changes the number of segments the queue can hold. Segments already in the
+	 * queue are kept, even if they exceed the new capacity.
+	 */
+	public void setCapacity(int capacity) {
+		this.capacity = Math.max(1, Math.min(capacity, MAX_CAPACITY));
+		signalSpace();
+	}
+
+	public int capacity() {
+		return capacity;
+	}
+
+	/**
+	 * Registers a callback to run once, when the next segment is added
+	 */
+	void onNext(Runnable waiter) {
+		waiters.add(waiter);
+	}
+
+	@Override
+	public int remainingCapacity() {
+		return Math.max(0, capacity - size());
+	}
+
+	@Override
+	public void put(SegmentContent segment) throws InterruptedException {
+		synchronized (space) {
+			while (size() >= capacity)
+				space.wait();
+		}
+		super.put(segment);
+		notifyWaiters();
+	}
+
+	@Override
+	public boolean offer(SegmentContent segment) {
+		return size() < capacity && super.offer(segment) && notifyWaiters();
+	}
+
+	@Override
+	public boolean offer(SegmentContent segment, long timeout, TimeUnit unit) throws InterruptedException {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		synchronized (space) {
+			long left;
+			while (size() >= capacity)
+				if ((left = deadline - System.nanoTime()) > 0)
+					TimeUnit.NANOSECONDS.timedWait(space, left);
+				else
+					return false;
+		}
+		return super.offer(segment) && notifyWaiters();
+	}
+
+	@Override
+	public SegmentContent take() throws InterruptedException {
+		var segment = super.take();
+		signalSpace();
+		return segment;
+	}
+
+	@Override
+	public SegmentContent poll() {
+		var segment = super.poll();
+		if (segment != null)
+			signalSpace();
+		return segment;
+	}
+
+	@Override
+	public SegmentContent poll(long timeout, TimeUnit unit) throws InterruptedException {
+		var segment = super.poll(timeout, unit);
+		if (segment != null)
+			signalSpace();
+		return segment;
+	}
+
+	@Override
+	public int drainTo(Collection<? super SegmentContent> c) {
+		return signalSpace(super.drainTo(c));
+	}
+
+	@Override
+	public int drainTo(Collection<? super SegmentContent> c, int maxElements) {
+		return signalSpace(super.drainTo(c, maxElements));
+	}
+
+	@Override
+	public void clear() {
+		super.clear();
+		signalSpace();
+	}
+
+	@Override
+	public boolean remove(Object o) {
+		return signalSpace(super.remove(o));
+	}
+
+	@Override
+	public boolean removeIf(Predicate<? super SegmentContent> filter) {
+		return signalSpace(super.removeIf(filter));
+	}
+
+	@Override
+	public boolean removeAll(Collection<?> c) {
+		return signalSpace(super.removeAll(c));
+	}
+
+	@Override
+	public boolean retainAll(Collection<?> c) {
+		return signalSpace(super.retainAll(c));
+	}
+
+	private boolean notifyWaiters() {
+		Runnable waiter;
+		while ((waiter = waiters.poll()) != null)
+			waiter.run();
+		return true;
+	}
+
+	private void signalSpace() {
+		synchronized (space) {
+			space.notifyAll();
+		}
+	}
+
+	private boolean signalSpace(boolean removed) {
+		if (removed)
+			signalSpace();
+		return removed;
+	}
+
+	private int signalSpace(int removed) {
+		if (removed > 0)
+			signalSpace();
+		return removed;
+	}
+}
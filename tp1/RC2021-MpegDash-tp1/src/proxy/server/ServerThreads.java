@@ -0,0 +1,115 @@
+package proxy.server;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Threads used by the proxy to serve browser connections and to run the
+ * client-side playback handlers.
+ *
+ * @author smduarte
+ */
+class ServerThreads {
+
+	/**
+	 * @return the given mode, or THREADS for VIRTUAL if virtual threads are not
+	 *         available in this JVM
+	 */
+	static ProxyServer.Mode effective(ProxyServer.Mode mode) {
+		if (mode == ProxyServer.Mode.VIRTUAL && !virtualThreadsAvailable()) {
+			Log.warn("Virtual threads not available in this JVM. Using THREADS mode...");
+			return ProxyServer.Mode.THREADS;
+		}
+		return mode;
+	}
+
+	/**
+	 * @return the executor for browser connections, or null if they are handled
+	 *         one at a time by the accepting thread.
+	 */
+	static ExecutorService connections(ProxyServer.Mode mode) {
+		switch (mode) {
+		case THREADS:
+			return Executors.newCachedThreadPool();
+		case VIRTUAL:
+			return virtualThreads();
+		default:
+			return null;
+		}
+	}
+
+	/**
+	 * @return the executor for playback handlers: virtual threads in VIRTUAL
+	 *         mode, a new platform thread per handler otherwise.
+	 */
+	static Executor handlers(ProxyServer.Mode mode) {
+		if (mode == ProxyServer.Mode.VIRTUAL)
+			return virtualThreads();
+		else
+			return task -> new Thread(task).start();
+	}
+
+	/**
+	 * @return a new executor for the segment fetches of a playback handler:
+	 *         virtual threads in VIRTUAL mode, a pool of platform threads
+	 *         otherwise.
+	 */
+	static ExecutorService fetches(ProxyServer.Mode mode) {
+		if (mode == ProxyServer.Mode.VIRTUAL)
+			return newVirtualThreadPerTaskExecutor();
+		else
+			return Executors.newCachedThreadPool();
+	}
+
+	/**
+	 * Runs the given task periodically, in a daemon thread, to expire idle
+	 * players.
+	 */
+	static void reaper(Runnable task, long periodNanos) {
+		var executor = Executors.newSingleThreadScheduledExecutor(r -> {
+			var t = new Thread(r, "player-reaper");
+			t.setDaemon(true);
+			return t;
+		});
+		executor.scheduleWithFixedDelay(() -> {
+			try {
+				task.run();
+			} catch (RuntimeException x) {
+				Log.error("Player reaper failed", x);
+			}
+		}, periodNanos, periodNanos, TimeUnit.NANOSECONDS);
+	}
+
+	private static ExecutorService virtualThreads;
+
+	private static synchronized ExecutorService virtualThreads() {
+		if (virtualThreads == null)
+			virtualThreads = newVirtualThreadPerTaskExecutor();
+		return virtualThreads;
+	}
+
+	static boolean virtualThreadsAvailable() {
+		try {
+			Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return true;
+		} catch (NoSuchMethodException x) {
+			return false;
+		}
+	}
+
+	/**
+	 * Virtual threads only exist in Java 21 onwards, and this project compiles
+	 * at Java 16 compliance, so they are looked up reflectively. Falls back to
+	 * platform threads in older JVMs.
+	 */
+	static ExecutorService newVirtualThreadPerTaskExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException x) {
+			Log.warn("Virtual threads not available in this JVM. Using platform threads...");
+			return Executors.newCachedThreadPool();
+		}
+	}
+}
@@ -0,0 +1,192 @@
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import cnss.simulator.Node;
+import ft21.FT21AbstractSenderApplication;
+import ft21.FT21_AckPacket;
+import ft21.FT21_DataPacket;
+import ft21.FT21_FinPacket;
+import ft21.FT21_UploadPacket;
+
+/**
+ * Go-Back-N sender of the FT21 protocol.
+ *
+ * Keeps up to windowSize DATA packets in flight, sending one per clock tick.
+ * ACKs are cumulative and slide the window. A single timer covers the oldest
+ * packet not yet acknowledged; when it expires, the whole window is sent
+ * again, starting from that packet.
+ *
+ * The receiver repeats its cumulative ACK for every packet received out of
+ * order. After DUP_ACKS duplicates, the oldest packet is taken as lost and the
+ * sender goes back at once, without waiting for the timer (fast retransmit).
+ *
+ * Arguments: filename blockSize windowSize
+ *
+ * @author smduarte
+ */
+public class FT21SenderGBN extends FT21AbstractSenderApplication {
+
+	private static final int TIMEOUT = 1000;
+	private static final int DUP_ACKS = 3;
+
+	static int RECEIVER = 1;
+
+	enum State {
+		BEGINNING, UPLOADING, FINISHING, FINISHED
+	};
+
+	private File file;
+	private RandomAccessFile raf;
+	private int BlockSize, WindowSize;
+	private int lastPacketSeqN;
+
+	// the oldest packet not yet acknowledged, and the next packet to send
+	private int windowBase, nextPacketSeqN;
+
+	private State state;
+
+	// the time the timer was started, or -1 if it is stopped
+	private int timerStart;
+
+	// the duplicates of the ACK of the packet before the window
+	private int dupAcks;
+
+	public FT21SenderGBN() {
+		this("FT21SenderGBN");
+	}
+
+	protected FT21SenderGBN(String name) {
+		super(true, name);
+	}
+
+	public int initialise(int now, int node_id, Node nodeObj, String[] args) {
+		super.initialise(now, node_id, nodeObj, args);
+
+		raf = null;
+		file = new File(args[0]);
+		BlockSize = Integer.parseInt(args[1]);
+		WindowSize = Integer.parseInt(args[2]);
+
+		state = State.BEGINNING;
+		lastPacketSeqN = (int) Math.ceil(file.length() / (double) BlockSize);
+
+		windowBase = nextPacketSeqN = 1;
+		timerStart = -1;
+		return 1;
+	}
+
+	public void on_clock_tick(int now) {
+		if (state == State.FINISHED)
+			return;
+
+		if (timerStart >= 0 && now - timerStart > timeout())
+			on_timeout(now);
+
+		if (canSend())
+			sendNextPacket(now);
+	}
+
+	private boolean canSend() {
+		switch (state) {
+		case UPLOADING:
+			return nextPacketSeqN <= lastPacketSeqN && nextPacketSeqN < windowBase + WindowSize;
+		case BEGINNING:
+		case FINISHING:
+			return timerStart < 0;
+		default:
+			return false;
+		}
+	}
+
+	private void sendNextPacket(int now) {
+		switch (state) {
+		case BEGINNING:
+			super.sendPacket(now, RECEIVER, new FT21_UploadPacket(file.getName()));
+			break;
+		case UPLOADING:
+			super.sendPacket(now, RECEIVER, readDataPacket(file, nextPacketSeqN++, now));
+			break;
+		case FINISHING:
+			super.sendPacket(now, RECEIVER, new FT21_FinPacket(lastPacketSeqN + 1));
+			break;
+		case FINISHED:
+		}
+
+		if (timerStart < 0)
+			timerStart = now;
+	}
+
+	@Override
+	public void on_timeout(int now) {
+		super.on_timeout(now);
+
+		// go back to the oldest packet not yet acknowledged
+		nextPacketSeqN = windowBase;
+		timerStart = -1;
+	}
+
+	@Override
+	public void on_receive_ack(int now, int client, FT21_AckPacket ack) {
+		switch (state) {
+		case BEGINNING:
+			state = lastPacketSeqN > 0 ? State.UPLOADING : State.FINISHING;
+			timerStart = -1;
+			break;
+		case UPLOADING:
+			if (ack.cSeqN == windowBase - 1 && windowBase < nextPacketSeqN && ++dupAcks == DUP_ACKS) {
+				super.sendPacket(now, RECEIVER, readDataPacket(file, windowBase, now));
+				nextPacketSeqN = windowBase + 1;
+				timerStart = now;
+			}
+			if (ack.cSeqN < windowBase)
+				break;
+
+			dupAcks = 0;
+			windowBase = ack.cSeqN + 1;
+			nextPacketSeqN = Math.max(nextPacketSeqN, windowBase);
+			timerStart = windowBase < nextPacketSeqN ? now : -1;
+
+			if (windowBase > lastPacketSeqN) {
+				state = State.FINISHING;
+				timerStart = -1;
+			}
+			break;
+		case FINISHING:
+			if (ack.cSeqN != lastPacketSeqN + 1)
+				break;
+			super.log(now, () -> "All Done. Transfer complete...");
+			super.printReport(now);
+			state = State.FINISHED;
+			return;
+		case FINISHED:
+		}
+	}
+
+	/**
+	 * @return the retransmission timeout, in ms
+	 */
+	protected int timeout() {
+		return TIMEOUT;
+	}
+
+	/**
+	 * Creates the DATA packet of a block, about to be sent.
+	 */
+	protected FT21_DataPacket dataPacket(int now, int seqN, byte[] data, int nbytes) {
+		return new FT21_DataPacket(seqN, data, nbytes);
+	}
+
+	private FT21_DataPacket readDataPacket(File file, int seqN, int now) {
+		try {
+			if (raf == null)
+				raf = new RandomAccessFile(file, "r");
+
+			raf.seek((long) BlockSize * (seqN - 1));
+			byte[] data = new byte[BlockSize];
+			int nbytes = raf.read(data);
+			return dataPacket(now, seqN, data, nbytes);
+		} catch (Exception x) {
+			throw new Error("Fatal Error: " + x.getMessage());
+		}
+	}
+}
@@ -0,0 +1,266 @@
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import cnss.simulator.Node;
+import ft21.FT21AbstractSenderApplication;
+import ft21.FT21_AckPacket;
+import ft21.FT21_DataPacket;
+import ft21.FT21_FinPacket;
+import ft21.FT21_UploadPacket;
+
+/**
+ * Selective Repeat sender of the FT21 protocol.
+ *
+ * Keeps up to windowSize DATA packets in flight, each with its own timer.
+ * DATA packets carry their sequence number in the optional data, so each ACK
+ * also tells which packet arrived, besides the cumulative sequence number.
+ * Only the packets whose timer expires are sent again. The expiry of the oldest
+ * packet is a timeout, reported once until more packets are acknowledged, as
+ * the packets sent after it usually expire with it.
+ *
+ * The receiver repeats its cumulative ACK for every packet received out of
+ * order. After DUP_ACKS duplicates, the oldest packet is taken as lost and sent
+ * again at once, without waiting for its timer (fast retransmit).
+ *
+ * A packet above the cumulative sequence number is only taken as buffered by
+ * the receiver if its window is known to be larger than one packet, and the
+ * ACK does not report it outside that window. A receiver with a window of one
+ * packet acknowledges the packets it discards the same way as those it
+ * accepts. Otherwise, the packet is sent again when its timer expires.
+ *
+ * The window is capped by the window of the receiver, if given.
+ *
+ * Arguments: filename blockSize windowSize [receiverWindowSize]
+ *
+ * @author smduarte
+ */
+public class FT21SenderSR extends FT21AbstractSenderApplication {
+
+	private static final int TIMEOUT = 1000;
+	private static final int DUP_ACKS = 3;
+
+	static int RECEIVER = 1;
+
+	enum State {
+		BEGINNING, UPLOADING, FINISHING, FINISHED
+	};
+
+	private File file;
+	private RandomAccessFile raf;
+	private int BlockSize, WindowSize, ReceiverWindowSize;
+	private int lastPacketSeqN;
+
+	// the oldest packet not yet acknowledged, and the next new packet to send
+	private int windowBase, nextPacketSeqN;
+
+	// per packet of the window, indexed by seqN % WindowSize
+	private boolean[] acked;
+	private int[] sentAt;
+
+	private State state;
+
+	// the timer of UPLOAD and FIN packets, or -1 if it is stopped
+	private int timerStart;
+
+	// the duplicates of the ACK of the packet before the window
+	private int dupAcks;
+
+	// whether a timeout was reported since packets were last acknowledged
+	private boolean timedOut;
+
+	public FT21SenderSR() {
+		this("FT21SenderSR");
+	}
+
+	protected FT21SenderSR(String name) {
+		super(true, name);
+	}
+
+	public int initialise(int now, int node_id, Node nodeObj, String[] args) {
+		super.initialise(now, node_id, nodeObj, args);
+
+		raf = null;
+		file = new File(args[0]);
+		BlockSize = Integer.parseInt(args[1]);
+		WindowSize = Integer.parseInt(args[2]);
+		// unknown, if not given, so only cumulative ACKs are trusted
+		ReceiverWindowSize = args.length > 3 ? Integer.parseInt(args[3]) : 1;
+		if (args.length > 3)
+			WindowSize = Math.min(WindowSize, ReceiverWindowSize);
+
+		state = State.BEGINNING;
+		lastPacketSeqN = (int) Math.ceil(file.length() / (double) BlockSize);
+
+		windowBase = nextPacketSeqN = 1;
+		acked = new boolean[WindowSize];
+		sentAt = new int[WindowSize];
+		timerStart = -1;
+		timedOut = false;
+		return 1;
+	}
+
+	public void on_clock_tick(int now) {
+		switch (state) {
+		case BEGINNING:
+		case FINISHING:
+			if (timerStart >= 0 && now - timerStart > timeout())
+				on_timeout(now);
+			if (timerStart < 0)
+				sendNextPacket(now);
+			break;
+		case UPLOADING:
+			int expired = expiredPacket(now);
+			if (expired > 0) {
+				if (expired == windowBase && !timedOut) {
+					timedOut = true;
+					on_timeout(now);
+				}
+				on_loss(now, expired, true);
+				sendDataPacket(now, expired);
+			} else if (nextPacketSeqN <= lastPacketSeqN && nextPacketSeqN < windowBase + window())
+				sendDataPacket(now, nextPacketSeqN++);
+			break;
+		case FINISHED:
+		}
+	}
+
+	// the oldest packet in flight whose timer expired, or -1
+	private int expiredPacket(int now) {
+		int oldest = -1;
+		for (int seqN = windowBase; seqN < nextPacketSeqN; seqN++) {
+			int i = seqN % WindowSize;
+			if (!acked[i] && now - sentAt[i] > timeout() && (oldest < 0 || sentAt[i] < sentAt[oldest % WindowSize]))
+				oldest = seqN;
+		}
+		return oldest;
+	}
+
+	private void sendNextPacket(int now) {
+		switch (state) {
+		case BEGINNING:
+			super.sendPacket(now, RECEIVER, new FT21_UploadPacket(file.getName()));
+			break;
+		case FINISHING:
+			super.sendPacket(now, RECEIVER, new FT21_FinPacket(lastPacketSeqN + 1));
+			break;
+		default:
+		}
+		timerStart = now;
+	}
+
+	private void sendDataPacket(int now, int seqN) {
+		sentAt[seqN % WindowSize] = now;
+		super.sendPacket(now, RECEIVER, readDataPacket(file, seqN, now));
+	}
+
+	@Override
+	public void on_timeout(int now) {
+		super.on_timeout(now);
+		timerStart = -1;
+	}
+
+	@Override
+	public void on_receive_ack(int now, int client, FT21_AckPacket ack) {
+		switch (state) {
+		case BEGINNING:
+			state = lastPacketSeqN > 0 ? State.UPLOADING : State.FINISHING;
+			timerStart = -1;
+			break;
+		case UPLOADING:
+			// a packet above the cumulative ack was buffered, unless outside the receiver window
+			int newlyAcked = 0;
+			boolean delivered = ack.sSeqN <= ack.cSeqN || (ReceiverWindowSize > 1 && !ack.outsideWindow);
+			if (delivered && ack.sSeqN >= windowBase && ack.sSeqN < nextPacketSeqN && !acked[ack.sSeqN % WindowSize]) {
+				acked[ack.sSeqN % WindowSize] = true;
+				newlyAcked++;
+			}
+
+			if (ack.cSeqN == windowBase - 1 && ack.sSeqN != windowBase && windowBase < nextPacketSeqN && !acked[windowBase % WindowSize]
+					&& ++dupAcks == DUP_ACKS) {
+				on_loss(now, windowBase, false);
+				sendDataPacket(now, windowBase);
+			}
+
+			int base = Math.max(windowBase, ack.cSeqN + 1);
+			if (base > windowBase || acked[windowBase % WindowSize])
+				dupAcks = 0;
+			while (windowBase < base || (windowBase < nextPacketSeqN && acked[windowBase % WindowSize])) {
+				newlyAcked += acked[windowBase % WindowSize] ? 0 : 1;
+				acked[windowBase++ % WindowSize] = false;
+			}
+			nextPacketSeqN = Math.max(nextPacketSeqN, windowBase);
+
+			if (newlyAcked > 0) {
+				timedOut = false;
+				on_acked(now, newlyAcked);
+			}
+
+			if (windowBase > lastPacketSeqN)
+				state = State.FINISHING;
+			break;
+		case FINISHING:
+			if (ack.cSeqN != lastPacketSeqN + 1)
+				break;
+			super.log(now, () -> "All Done. Transfer complete...");
+			super.printReport(now);
+			state = State.FINISHED;
+			return;
+		case FINISHED:
+		}
+	}
+
+	/**
+	 * @return the number of packets that can be in flight, up to windowSize()
+	 */
+	protected int window() {
+		return WindowSize;
+	}
+
+	/**
+	 * @return the largest window, windowSize capped by the window of the receiver
+	 */
+	protected int windowSize() {
+		return WindowSize;
+	}
+
+	/**
+	 * Called when an ACK acknowledges packets for the first time.
+	 */
+	protected void on_acked(int now, int packets) {
+	}
+
+	/**
+	 * Called when a packet is taken as lost, either because its timer expired or
+	 * by fast retransmit, right before it is sent again.
+	 */
+	protected void on_loss(int now, int seqN, boolean timeout) {
+	}
+
+	/**
+	 * @return the retransmission timeout, in ms
+	 */
+	protected int timeout() {
+		return TIMEOUT;
+	}
+
+	/**
+	 * Creates the DATA packet of a block, about to be sent.
+	 */
+	protected FT21_DataPacket dataPacket(int now, int seqN, byte[] data, int nbytes) {
+		return new FT21_DataPacket(seqN, data, nbytes, now);
+	}
+
+	private FT21_DataPacket readDataPacket(File file, int seqN, int now) {
+		try {
+			if (raf == null)
+				raf = new RandomAccessFile(file, "r");
+
+			raf.seek((long) BlockSize * (seqN - 1));
+			byte[] data = new byte[BlockSize];
+			int nbytes = raf.read(data);
+			return dataPacket(now, seqN, data, nbytes);
+		} catch (Exception x) {
+			throw new Error("Fatal Error: " + x.getMessage());
+		}
+	}
+}
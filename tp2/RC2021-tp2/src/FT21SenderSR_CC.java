@@ -0,0 +1,126 @@
+import java.util.ArrayList;
+import java.util.List;
+
+import cnss.simulator.Node;
+import ft21.FT21_DataPacket;
+
+/**
+ * Selective Repeat sender of the FT21 protocol, with adaptive timeouts and a
+ * congestion window, as in TCP Reno.
+ *
+ * The window starts at one packet and grows by one packet per packet
+ * acknowledged (slow start), up to the slow start threshold, then by one
+ * packet per window acknowledged (congestion avoidance). A loss found by
+ * fast retransmit halves it; a timeout sets the threshold to half the window
+ * and restarts slow start. The window is reduced at most once per window of
+ * packets in flight, and never exceeds windowSize, capped by the window of the
+ * receiver, which must be given.
+ *
+ * The report ends with the trajectory of the window, as the times it changed.
+ *
+ * Arguments: filename blockSize windowSize receiverWindowSize
+ *
+ * @author smduarte
+ */
+public class FT21SenderSR_CC extends FT21SenderSR_DT {
+
+	private static final int MIN_SSTHRESH = 2;
+	private static final int TRAJECTORY_POINTS_PER_LINE = 10;
+
+	private int maxWindow;
+	private double cwnd;
+	private int ssthresh;
+
+	// the highest packet sent, and the highest sent when the window was last reduced
+	private int highestSent, recover;
+
+	private int reductions, timeoutReductions;
+	private final List<int[]> trajectory = new ArrayList<>();
+
+	public FT21SenderSR_CC() {
+		super("FT21SenderSR_CC");
+	}
+
+	@Override
+	public int initialise(int now, int node_id, Node nodeObj, String[] args) {
+		if (args.length < 4) {
+			System.err.println(this.getClass().getSimpleName() + " missing receiverWindowSize argument [in config file]");
+			System.exit(-1);
+		}
+		int res = super.initialise(now, node_id, nodeObj, args);
+		maxWindow = windowSize();
+		cwnd = 1;
+		ssthresh = maxWindow;
+		highestSent = recover = 0;
+		trajectory.clear();
+		trajectory.add(new int[] { now, window() });
+		return res;
+	}
+
+	@Override
+	protected int window() {
+		return Math.max(1, Math.min(maxWindow, (int) cwnd));
+	}
+
+	@Override
+	protected FT21_DataPacket dataPacket(int now, int seqN, byte[] data, int nbytes) {
+		highestSent = Math.max(highestSent, seqN);
+		return super.dataPacket(now, seqN, data, nbytes);
+	}
+
+	@Override
+	protected void on_acked(int now, int packets) {
+		double w = cwnd;
+		for (int i = 0; i < packets; i++)
+			w += w < ssthresh ? 1 : 1 / w;
+		update(now, Math.min(w, maxWindow));
+	}
+
+	@Override
+	protected void on_loss(int now, int seqN, boolean timeout) {
+		// packets sent before the last reduction were lost in the same episode
+		if (seqN <= recover)
+			return;
+		recover = highestSent;
+		reductions++;
+
+		ssthresh = Math.max(MIN_SSTHRESH, window() / 2);
+		if (timeout) {
+			timeoutReductions++;
+			update(now, 1);
+		} else
+			update(now, ssthresh);
+	}
+
+	private void update(int now, double cwnd) {
+		int before = window();
+		this.cwnd = cwnd;
+		if (window() != before)
+			trajectory.add(new int[] { now, window() });
+	}
+
+	@Override
+	protected void printDetails(int now) {
+		System.out.println("------------------------------------");
+		System.out.printf("Congestion window (max: %d, reductions: %d, after timeouts: %d, final ssthresh: %d)\n", maxWindow, reductions, timeoutReductions, ssthresh);
+
+		long area = 0;
+		for (int i = 0; i < trajectory.size(); i++) {
+			int[] p = trajectory.get(i);
+			int until = i + 1 < trajectory.size() ? trajectory.get(i + 1)[0] : now;
+			area += (long) p[1] * (until - p[0]);
+		}
+		int elapsed = now - trajectory.get(0)[0];
+		System.out.printf("Mean window: %.2f packets\n", elapsed > 0 ? area / (double) elapsed : (double) window());
+
+		System.out.println("Window trajectory (time: window):");
+		var sb = new StringBuilder();
+		for (int i = 0; i < trajectory.size(); i++) {
+			int[] p = trajectory.get(i);
+			sb.append(String.format("%d: %d", p[0], p[1]));
+			if (i + 1 < trajectory.size())
+				sb.append((i + 1) % TRAJECTORY_POINTS_PER_LINE == 0 ? "\n" : ", ");
+		}
+		System.out.println(sb);
+	}
+}
@@ -0,0 +1,59 @@
+import cnss.simulator.Node;
+import ft21.FT21RttEstimator;
+import ft21.FT21_AckPacket;
+import ft21.FT21_DataPacket;
+
+/**
+ * Selective Repeat sender of the FT21 protocol, with a timeout adapted to the
+ * RTT measured between the sender and the receiver.
+ *
+ * Arguments: filename blockSize windowSize [receiverWindowSize]
+ *
+ * @author smduarte
+ */
+public class FT21SenderSR_DT extends FT21SenderSR {
+
+	private FT21RttEstimator rtt;
+
+	public FT21SenderSR_DT() {
+		this("FT21SenderSR_DT");
+	}
+
+	protected FT21SenderSR_DT(String name) {
+		super(name);
+	}
+
+	@Override
+	public int initialise(int now, int node_id, Node nodeObj, String[] args) {
+		rtt = new FT21RttEstimator();
+		return super.initialise(now, node_id, nodeObj, args);
+	}
+
+	@Override
+	protected int timeout() {
+		return rtt.timeout();
+	}
+
+	@Override
+	protected FT21_DataPacket dataPacket(int now, int seqN, byte[] data, int nbytes) {
+		rtt.sent(seqN);
+		return new FT21_DataPacket(seqN, data, nbytes, now);
+	}
+
+	@Override
+	public void on_timeout(int now) {
+		super.on_timeout(now);
+		rtt.backoff();
+		super.tallyTimeout(rtt.timeout());
+	}
+
+	@Override
+	public void on_receive_ack(int now, int client, FT21_AckPacket ack) {
+		int sample = rtt.sample(now, ack);
+		if (sample >= 0) {
+			super.tallyRTT(sample);
+			super.tallyTimeout(rtt.timeout());
+		}
+		super.on_receive_ack(now, client, ack);
+	}
+}
@@ -84,7 +84,7 @@ public class FT21SenderSW extends FT21AbstractSenderApplication {
 			lastPacketSent = -1;
 			break;
 		case FINISHING:
-			super.log(now, "All Done. Transfer complete...");
+			super.log(now, () -> "All Done. Transfer complete...");
 			super.printReport(now);
 			state = State.FINISHED;
 			return;
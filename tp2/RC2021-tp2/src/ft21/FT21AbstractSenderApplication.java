@@ -1,9 +1,12 @@
 package ft21;
 
+import java.util.function.Supplier;
+
 import cnss.lib.AbstractApplicationAlgorithm;
 import cnss.simulator.DataPacket;
 import cnss.simulator.Node;
 import ft21.FT21Packet.PacketType;
+import ft21.Log.Level;
 
 abstract public class FT21AbstractSenderApplication extends AbstractApplicationAlgorithm {
 
@@ -11,8 +14,11 @@ abstract public class FT21AbstractSenderApplication extends AbstractApplicationA
 
 	FT21Stats stats;
 
+	private final boolean logOn;
+
 	protected FT21AbstractSenderApplication(boolean logOn, String name) {
 		super(logOn, name);
+		this.logOn = logOn;
 	}
 
 	public int initialise(int now, int node_id, Node self, String[] args) {
@@ -22,7 +28,7 @@ abstract public class FT21AbstractSenderApplication extends AbstractApplicationA
 	}
 
 	protected void sendPacket(int now, int dest, FT21Packet pkt) {
-		super.log(now, "SENDING: " + pkt);
+		log(now, () -> "SENDING: " + pkt);
 
 		DataPacket cnssPkt = self.createDataPacket(dest, pkt.encodeToBytes());
 		self.send(cnssPkt);
@@ -34,7 +40,7 @@ abstract public class FT21AbstractSenderApplication extends AbstractApplicationA
 	public void on_timeout(int now) {
 		stats.timeoutEvents++;
 
-		super.log(now, "TIMEOUT...");
+		log(now, () -> "TIMEOUT...");
 	}
 
 	public void on_receive(int now, DataPacket cnssPkt) {
@@ -57,12 +63,21 @@ abstract public class FT21AbstractSenderApplication extends AbstractApplicationA
 	}
 
 	protected void printReport(int now) {
+		Log.flush();
 		System.out.println("\n+++++++++++++++++++++++++++++++++++++++++");
 		System.out.println(super.name + " STATS\n");
 		stats.printReport(now);
+		printDetails(now);
 		System.out.println("+++++++++++++++++++++++++++++++++++++++++\n");
 	}
 
+	/**
+	 * Prints the details of a sender at the end of its report. By default,
+	 * none.
+	 */
+	protected void printDetails(int now) {
+	}
+
 	protected void tallyRTT(int rttSample) {
 		stats.rtt.tally(rttSample);
 	}
@@ -76,7 +91,16 @@ abstract public class FT21AbstractSenderApplication extends AbstractApplicationA
 	}
 	
 	protected void logPacket( int now, FT21Packet pkt ) {
-		super.log(now, "GOT: " + pkt);
+		log(now, () -> "GOT: " + pkt);
 		stats.in.increment(pkt.getClass().getSimpleName(), 1);
 	}
+
+	/**
+	 * Logs a message through the asynchronous logger. The message is only
+	 * built if logging is on for this node and the INFO level is enabled.
+	 */
+	protected void log(int now, Supplier<String> msg) {
+		if (logOn && Log.enabled(Level.INFO))
+			Log.info(() -> String.format("log: %s time %d %s", super.name, now, msg.get()));
+	}
 }
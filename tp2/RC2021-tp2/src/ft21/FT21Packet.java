@@ -14,6 +14,8 @@ public class FT21Packet {
 	public final PacketType type;
 
 	protected static byte NO_OPTIONAL_DATA_LEN = (byte)0;
+	// the optional data echoed by the receiver: the sequence number and send time of a packet
+	protected static byte ECHO_OPTIONAL_DATA_LEN = (byte)8;
 	/**
 	 * Constructor for creating a new FT21Packet with the given opcode
 	 * 
@@ -126,6 +128,13 @@ public class FT21Packet {
 		return b;
 	}
 
+	/**
+	 * @return the number of bytes left, from the current position until the end
+	 */
+	protected int remaining() {
+		return bb.remaining();
+	}
+
 	protected byte[] getBytes(int nbytes) {
 		byte[] bytes = new byte[nbytes];
 		bb.get(bytes);
@@ -0,0 +1,78 @@
+package ft21;
+
+import java.util.BitSet;
+
+/**
+ * Adaptive retransmission timeout of an FT21 sender, following Jacobson's
+ * algorithm (RFC 6298): the timeout is the smoothed RTT plus four times its
+ * mean deviation.
+ *
+ * RTT samples come from the send time DATA packets carry in their optional
+ * data, echoed in ACKs. Following Karn's rule, packets sent more than once
+ * give no samples, and every timeout doubles the timeout until a new sample
+ * arrives.
+ *
+ * @author smduarte
+ */
+public class FT21RttEstimator {
+
+	static final int INITIAL_TIMEOUT = 1000;
+	static final int MIN_TIMEOUT = 10, MAX_TIMEOUT = 60_000;
+
+	private static final double ALPHA = 1 / 8.0, BETA = 1 / 4.0;
+
+	private double srtt = -1, rttvar;
+	private int timeout = INITIAL_TIMEOUT;
+
+	private final BitSet retransmitted = new BitSet();
+	private int highestSent;
+
+	/**
+	 * @return the current retransmission timeout, in ms
+	 */
+	public int timeout() {
+		return timeout;
+	}
+
+	/**
+	 * Records a DATA packet about to be sent.
+	 */
+	public void sent(int seqN) {
+		if (seqN <= highestSent)
+			retransmitted.set(seqN);
+		else
+			highestSent = seqN;
+	}
+
+	/**
+	 * Updates the timeout with the RTT of the packet that caused the given ACK.
+	 *
+	 * @return the RTT sample, or -1 if the ACK gave none
+	 */
+	public int sample(int now, FT21_AckPacket ack) {
+		if (ack.sentAt < 0 || ack.sSeqN <= 0 || retransmitted.get(ack.sSeqN))
+			return -1;
+
+		int rtt = now - ack.sentAt;
+		if (srtt < 0) {
+			srtt = rtt;
+			rttvar = rtt / 2.0;
+		} else {
+			rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+			srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+		}
+		timeout = clamp((int) Math.ceil(srtt + Math.max(1, 4 * rttvar)));
+		return rtt;
+	}
+
+	/**
+	 * Doubles the timeout, after it expired.
+	 */
+	public void backoff() {
+		timeout = clamp(timeout * 2);
+	}
+
+	private static int clamp(int timeout) {
+		return Math.max(MIN_TIMEOUT, Math.min(MAX_TIMEOUT, timeout));
+	}
+}
@@ -3,6 +3,9 @@ package ft21;
 public class FT21_AckPacket extends FT21Packet {
 	public final int cSeqN;
 	public final boolean outsideWindow;
+
+	// the sequence number and send time of the packet that caused this ACK, or -1 if not echoed
+	public final int sSeqN, sentAt;
 	
 	FT21_AckPacket(byte[] bytes) {
 		super( bytes );		
@@ -10,7 +13,11 @@ public class FT21_AckPacket extends FT21Packet {
 		this.cSeqN = Math.abs( seqN );
 		this.outsideWindow = seqN < 0;
 		
-		// decode optional fields here...
+		if (super.remaining() >= ECHO_OPTIONAL_DATA_LEN) {
+			this.sSeqN = super.getInt();
+			this.sentAt = super.getInt();
+		} else
+			this.sSeqN = this.sentAt = -1;
 	}
 
 	public String toString() {
@@ -17,6 +17,21 @@ public class FT21_DataPacket extends FT21Packet {
 		this.data = data;		
 	}
 
+	/**
+	 * Creates a DATA packet with its sequence number and send time in the
+	 * optional data, which the receiver echoes in the ACK it causes.
+	 */
+	public FT21_DataPacket(int seqN, byte[] data, int datalen, int sentAt) {
+		super(PacketType.DATA);
+		super.putInt(seqN);
+		super.putByte(ECHO_OPTIONAL_DATA_LEN);
+		super.putInt(seqN);
+		super.putInt(sentAt);
+		super.putBytes(data, datalen);
+		this.seqN = seqN;
+		this.data = data;
+	}
+
 	
 	public String toString() {
 		return String.format("DATA<%d, len: %d>", seqN, data.length);
@@ -0,0 +1,135 @@
+package ft21;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous logger of the senders and the receiver.
+ *
+ * Messages below the current level are never built: callers pass a supplier,
+ * or check enabled() first. Enabled messages are put in a bounded ring buffer
+ * and written to System.out by a background thread, so logging never blocks
+ * the simulator thread. When the ring is full, messages are dropped and
+ * counted. Call flush() before printing anything that must follow the log.
+ *
+ * The level is set with the log.level system property: DEBUG, INFO (the
+ * default, also used for unknown levels), WARN, ERROR or OFF.
+ *
+ * @author smduarte
+ */
+public class Log {
+
+	public static enum Level {
+		DEBUG, INFO, WARN, ERROR, OFF
+	}
+
+	private static final int CAPACITY = 1 << 13, MASK = CAPACITY - 1;
+	private static final long IDLE_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+	private static final long FLUSH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+	private static volatile Level level = initialLevel();
+
+	private static final AtomicReferenceArray<String> ring = new AtomicReferenceArray<>(CAPACITY);
+	private static final AtomicLong tail = new AtomicLong();
+	private static volatile long head;
+	private static final LongAdder dropped = new LongAdder();
+
+	private static volatile boolean sleeping;
+	private static final Thread writer = new Thread(Log::drain, "log-writer");
+	private static final PrintStream out = System.out;
+
+	static {
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(Log::flush));
+	}
+
+	public static void setLevel(Level l) {
+		level = l;
+	}
+
+	private static Level initialLevel() {
+		var name = System.getProperty("log.level", "INFO");
+		try {
+			return Level.valueOf(name.toUpperCase());
+		} catch (IllegalArgumentException x) {
+			System.err.println("Unknown log.level: " + name + ", using INFO");
+			return Level.INFO;
+		}
+	}
+
+	public static boolean enabled(Level l) {
+		return level != Level.OFF && l.compareTo(level) >= 0;
+	}
+
+	public static void debug(Supplier<String> msg) {
+		if (enabled(Level.DEBUG))
+			log(msg.get());
+	}
+
+	public static void info(Supplier<String> msg) {
+		if (enabled(Level.INFO))
+			log(msg.get());
+	}
+
+	public static void warn(String msg) {
+		if (enabled(Level.WARN))
+			log(msg);
+	}
+
+	private static void log(String msg) {
+		for (;;) {
+			long t = tail.get();
+			if (t - head >= CAPACITY) {
+				dropped.increment();
+				return;
+			}
+			if (tail.compareAndSet(t, t + 1)) {
+				ring.set((int) t & MASK, msg);
+				break;
+			}
+		}
+		if (sleeping)
+			LockSupport.unpark(writer);
+	}
+
+	/**
+	 * Waits until the messages logged so far are written, for up to a second.
+	 */
+	public static void flush() {
+		long target = tail.get(), deadline = System.nanoTime() + FLUSH_TIMEOUT_NANOS;
+		while (head < target && System.nanoTime() < deadline) {
+			LockSupport.unpark(writer);
+			LockSupport.parkNanos(100_000);
+		}
+	}
+
+	// a slot claimed by a producer but not yet filled ends the batch, until the next round
+	private static void drain() {
+		long lastDropped = 0;
+		for (;;) {
+			String msg;
+			while ((msg = ring.get((int) head & MASK)) != null) {
+				ring.set((int) head & MASK, null);
+				out.println(msg);
+				head++;
+			}
+			long d = dropped.sum();
+			if (d > lastDropped) {
+				out.printf("log: %d messages dropped\n", d - lastDropped);
+				lastDropped = d;
+			}
+			out.flush();
+
+			sleeping = true;
+			if (ring.get((int) head & MASK) == null)
+				LockSupport.parkNanos(IDLE_NANOS);
+			sleeping = false;
+		}
+	}
+}
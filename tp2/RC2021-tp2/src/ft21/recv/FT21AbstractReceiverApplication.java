@@ -1,11 +1,15 @@
 package ft21.recv;
 
+import java.util.function.Supplier;
+
 import cnss.lib.AbstractApplicationAlgorithm;
 import cnss.simulator.DataPacket;
 import cnss.simulator.Node;
 import ft21.FT21Packet;
 import ft21.FT21Stats;
+import ft21.Log;
 import ft21.FT21Packet.PacketType;
+import ft21.Log.Level;
 
 abstract class FT21AbstractReceiverApplication extends AbstractApplicationAlgorithm {
 
@@ -13,8 +17,11 @@ abstract class FT21AbstractReceiverApplication extends AbstractApplicationAlgori
 
 	FT21Stats stats;
 
+	private final boolean logOn;
+
 	protected FT21AbstractReceiverApplication(boolean logOn, String name) {
 		super(logOn, name);
+		this.logOn = logOn;
 	}
 
 	public int initialise(int now, int node_id, Node self, String[] args) {
@@ -24,7 +31,7 @@ abstract class FT21AbstractReceiverApplication extends AbstractApplicationAlgori
 	}
 
 	protected void sendPacket(int now, int dest, FT21Packet pkt) {
-		super.log(now, "SENDING: " + pkt);
+		log(now, () -> "SENDING: " + pkt);
 
 		DataPacket cnssPkt = self.createDataPacket(dest, pkt.encodeToBytes());
 		self.send(cnssPkt);
@@ -36,7 +43,7 @@ abstract class FT21AbstractReceiverApplication extends AbstractApplicationAlgori
 	public void on_timeout(int now) {
 		stats.timeoutEvents++;
 
-		super.log(now, "TIMEOUT...");
+		log(now, () -> "TIMEOUT...");
 	}
 
 	public void on_receive(int now, DataPacket cnssPkt) {
@@ -62,6 +69,7 @@ abstract class FT21AbstractReceiverApplication extends AbstractApplicationAlgori
 	}
 
 	protected void printReport(int now) {
+		Log.flush();
 		System.out.println("\n+++++++++++++++++++++++++++++++++++++++++");
 		System.out.println(super.name + " STATS\n");
 		stats.printReport(now);
@@ -89,7 +97,16 @@ abstract class FT21AbstractReceiverApplication extends AbstractApplicationAlgori
 	}
 	
 	protected void logPacket( int now, FT21Packet pkt ) {
-		super.log(now, "GOT: " + pkt);
+		log(now, () -> "GOT: " + pkt);
 		stats.in.increment(pkt.getClass().getSimpleName(), 1);
 	}
+
+	/**
+	 * Logs a message through the asynchronous logger, as the senders do. The
+	 * message is only built if it is going to be written.
+	 */
+	protected void log(int now, Supplier<String> msg) {
+		if (logOn && Log.enabled(Level.INFO))
+			Log.info(() -> String.format("log: %s time %d %s", super.name, now, msg.get()));
+	}
 }